@@ -0,0 +1,86 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge;
+
+import io.ib67.edge.config.ServerConfig.HttpConfig;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares request throughput of a listener configured by {@link HttpConfig} over HTTP/1.1 with a connection
+ * pool and over h2c with a single multiplexed connection.
+ * Run with {@code ./gradlew :server:jmh -Pjmh.includes=HttpProtocolBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpProtocolBenchmark {
+    static final int BATCH = 256;
+    @Param({"HTTP_1_1", "HTTP_2"})
+    HttpVersion protocol;
+    @Param({"16", "64"})
+    int concurrency;
+    Vertx vertx;
+    HttpServer server;
+    HttpClient client;
+
+    @Setup
+    public void setup() throws Exception {
+        vertx = Vertx.vertx();
+        var http = new HttpConfig(true, 0, 0, 0, true, false, false, 0, 0, concurrency);
+        server = vertx.createHttpServer(http.toServerOptions())
+                .requestHandler(request -> request.response().end("hello"))
+                .listen(0, "127.0.0.1")
+                .toCompletionStage().toCompletableFuture().get();
+        var options = new HttpClientOptions()
+                .setProtocolVersion(protocol)
+                .setHttp2ClearTextUpgrade(false) // prior knowledge
+                .setDefaultHost("127.0.0.1")
+                .setDefaultPort(server.actualPort());
+        client = vertx.createHttpClient(options, new PoolOptions()
+                .setHttp1MaxSize(concurrency)
+                .setHttp2MaxSize(1));
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        client.close().toCompletionStage().toCompletableFuture().get();
+        server.close().toCompletionStage().toCompletableFuture().get();
+        vertx.close().toCompletionStage().toCompletableFuture().get();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void requests() throws InterruptedException {
+        var latch = new CountDownLatch(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            client.request(HttpMethod.GET, "/")
+                    .compose(request -> request.send().compose(HttpClientResponse::body))
+                    .onComplete(it -> latch.countDown());
+        }
+        latch.await();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package io.ib67.edge;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the route table against the previous "first label + ConcurrentHashMap" lookup.
+ * Run with {@code ./gradlew :server:jmh -Pjmh.includes=RouteTableBenchmark -Pjmh.profilers=gc}
+ * to see allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RouteTableBenchmark {
+    @Param({"10000"})
+    int deployments;
+
+    RouteTable<Integer> table;
+    Map<String, Integer> legacy;
+    String[] labelHosts;
+    String[] customHosts;
+    String[] wildcardHosts;
+    int cursor;
+
+    @Setup
+    public void setup() {
+        var builder = RouteTable.<Integer>builder();
+        legacy = new ConcurrentHashMap<>();
+        labelHosts = new String[deployments];
+        customHosts = new String[deployments];
+        wildcardHosts = new String[deployments];
+        for (int i = 0; i < deployments; i++) {
+            builder.label("tenant" + i, i);
+            builder.route("shop" + i + ".example.org", i);
+            builder.route("*.t" + i + ".example.net", i);
+            legacy.put("tenant" + i, i);
+            labelHosts[i] = "Tenant" + i + ".localhost:8080";
+            customHosts[i] = "shop" + i + ".example.org";
+            wildcardHosts[i] = "www.t" + i + ".example.net";
+        }
+        table = builder.build();
+    }
+
+    private int next() {
+        var i = cursor + 1;
+        if (i == deployments) i = 0;
+        return cursor = i;
+    }
+
+    @Benchmark
+    public Integer legacyFirstLabel() {
+        var host = labelHosts[next()];
+        var firstDot = host.indexOf('.');
+        return legacy.get(host.substring(0, firstDot).toLowerCase());
+    }
+
+    @Benchmark
+    public Integer tableFirstLabel() {
+        return table.lookup(labelHosts[next()]);
+    }
+
+    @Benchmark
+    public Integer tableExactHost() {
+        return table.lookup(customHosts[next()]);
+    }
+
+    @Benchmark
+    public Integer tableWildcard() {
+        return table.lookup(wildcardHosts[next()]);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge.api.script.http;
+
+import io.vertx.core.buffer.Buffer;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.HostAccess;
+import org.graalvm.polyglot.Value;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures checksum throughput of a script reading a request body through polyglot calls to {@link Buffer},
+ * compared with a {@code Uint8Array} over {@link ByteViews#view(Buffer)}.
+ * Run with {@code ./gradlew :server:jmh -Pjmh.includes=ByteViewsBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ByteViewsBenchmark {
+    @Param({"1024", "65536"})
+    int size;
+    Context context;
+    Buffer buffer;
+    Value getByteChecksum;
+    Value viewChecksum;
+
+    @Setup
+    public void setup() {
+        context = Context.newBuilder("js")
+                .allowHostAccess(HostAccess.newBuilder()
+                        .allowPublicAccess(true)
+                        .allowBufferAccess(true)
+                        .build())
+                .build();
+        var bytes = new byte[size];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        buffer = Buffer.buffer(bytes);
+        getByteChecksum = context.eval("js", """
+                (buffer) => {
+                    let sum = 0;
+                    const length = buffer.length();
+                    for (let i = 0; i < length; i++) sum = (sum * 31 + buffer.getUnsignedByte(i)) | 0;
+                    return sum;
+                }
+                """);
+        viewChecksum = context.eval("js", """
+                (bytes) => {
+                    let sum = 0;
+                    const view = new Uint8Array(bytes);
+                    for (let i = 0; i < view.length; i++) sum = (sum * 31 + view[i]) | 0;
+                    return sum;
+                }
+                """);
+    }
+
+    @TearDown
+    public void teardown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int getByte() {
+        return getByteChecksum.execute(buffer).asInt();
+    }
+
+    @Benchmark
+    public int view() {
+        return viewChecksum.execute(ByteViews.view(buffer)).asInt();
+    }
+}
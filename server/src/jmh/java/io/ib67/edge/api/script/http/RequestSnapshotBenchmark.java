@@ -0,0 +1,106 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge.api.script.http;
+
+import io.vertx.core.MultiMap;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.HostAccess;
+import org.graalvm.polyglot.Value;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A routing handler which inspects a dozen headers, reading them through the host {@link MultiMap}
+ * compared with a {@link RequestSnapshot}, including the cost of taking the snapshot.
+ * Run with {@code ./gradlew :server:jmh -Pjmh.includes=RequestSnapshotBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestSnapshotBenchmark {
+    static final String ROUTE = """
+            const route = (get) => {
+                let score = 0;
+                if (get("accept")?.includes("text/html")) score += 1;
+                if (get("accept-language")?.startsWith("en")) score += 2;
+                if (get("user-agent")?.includes("Mobile")) score += 4;
+                if (get("authorization") != null) score += 8;
+                if (get("cookie")?.includes("session=")) score += 16;
+                if (get("x-forwarded-for") != null) score += 32;
+                if (get("x-forwarded-proto") === "https") score += 64;
+                if (get("x-request-id") != null) score += 128;
+                if (get("if-none-match") != null) score += 256;
+                if (get("cache-control") === "no-cache") score += 512;
+                if (get("x-tenant") === "acme") score += 1024;
+                if (get("x-missing") != null) score += 2048;
+                return score;
+            };
+            """;
+    Context context;
+    MultiMap headers;
+    MultiMap params;
+    Value hostHandler;
+    Value snapshotHandler;
+
+    @Setup
+    public void setup() {
+        context = Context.newBuilder("js")
+                .allowHostAccess(HostAccess.newBuilder().allowPublicAccess(true).build())
+                .build();
+        headers = MultiMap.caseInsensitiveMultiMap()
+                .add("Host", "example.com")
+                .add("Accept", "text/html,application/xhtml+xml")
+                .add("Accept-Language", "en-US,en;q=0.9")
+                .add("Accept-Encoding", "gzip, deflate, br")
+                .add("User-Agent", "Mozilla/5.0 (iPhone) Mobile Safari")
+                .add("Authorization", "Bearer token")
+                .add("Cookie", "theme=dark; session=abc")
+                .add("X-Forwarded-For", "10.0.0.1")
+                .add("X-Forwarded-Proto", "https")
+                .add("X-Request-Id", "4f1c")
+                .add("If-None-Match", "\"etag\"")
+                .add("Cache-Control", "no-cache")
+                .add("X-Tenant", "acme")
+                .add("Connection", "keep-alive");
+        params = MultiMap.caseInsensitiveMultiMap().add("q", "edge").add("page", "1");
+        hostHandler = context.eval("js", ROUTE + "(headers) => route(name => headers.get(name))");
+        snapshotHandler = context.eval("js", ROUTE + "(request) => route(name => request.headers[name])");
+    }
+
+    @TearDown
+    public void teardown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int multiMap() {
+        return hostHandler.execute(headers).asInt();
+    }
+
+    @Benchmark
+    public int snapshot() {
+        var snapshot = RequestSnapshot.of("GET", "/search?q=edge&page=1", "/search", "q=edge&page=1",
+                "example.com", "https", headers, params);
+        return snapshotHandler.execute(snapshot).asInt();
+    }
+}
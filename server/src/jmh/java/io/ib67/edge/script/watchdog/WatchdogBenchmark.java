@@ -0,0 +1,85 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package io.ib67.edge.script.watchdog;
+
+import org.graalvm.polyglot.Context;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of guarding a request, compared with scheduling a task per request like the watchdog used to do.
+ * Run with {@code ./gradlew :server:jmh -Pjmh.includes=WatchdogBenchmark}, the thread count simulates event loops.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class WatchdogBenchmark {
+    Context context;
+    Watchdog watchdog;
+    ScheduledExecutorService executor;
+
+    @State(Scope.Thread)
+    public static class PerThread {
+        Watchdog.Slot slot;
+
+        @Setup
+        public void setup(WatchdogBenchmark benchmark) {
+            slot = benchmark.watchdog.register(benchmark.context);
+        }
+
+        @TearDown
+        public void teardown() {
+            slot.close();
+        }
+    }
+
+    @Setup
+    public void setup() {
+        context = Context.create("js");
+        watchdog = new Watchdog(Thread.ofPlatform().daemon().factory(), Duration.ofSeconds(1));
+        executor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @TearDown
+    public void teardown() {
+        watchdog.close();
+        executor.shutdownNow();
+        context.close();
+    }
+
+    @Benchmark
+    public void slot(PerThread state) {
+        state.slot.arm();
+        state.slot.disarm();
+    }
+
+    @Benchmark
+    public boolean scheduledTask() {
+        var handle = executor.schedule(() -> {
+        }, 1, TimeUnit.SECONDS);
+        return handle.cancel(true);
+    }
+}
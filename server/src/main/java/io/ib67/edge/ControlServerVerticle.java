@@ -20,8 +20,15 @@ package io.ib67.edge;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.json.JsonMapper;
+import io.ib67.edge.config.ServerConfig.HttpConfig;
+import io.ib67.edge.script.io.ArchiveFileSystem;
+import io.ib67.edge.serializer.ContentStore;
+import io.ib67.edge.serializer.SourceInterner;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.http.HttpHeaders;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import lombok.AccessLevel;
@@ -29,6 +36,10 @@ import lombok.Getter;
 import lombok.SneakyThrows;
 import lombok.extern.log4j.Log4j2;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+
 @Log4j2
 @Getter
 public class ControlServerVerticle extends AbstractVerticle {
@@ -37,9 +48,23 @@ public class ControlServerVerticle extends AbstractVerticle {
     protected final ObjectMapper mapper;
     protected final String host;
     protected final int port;
+    protected final ContentStore bundles;
+    protected final long maxBundleBytes;
+    protected final SourceInterner interner;
+    protected final HttpConfig http;
 
-    public ControlServerVerticle(String host, int port, ServerVerticle serverVerticle) {
+    /**
+     * @param bundles        where uploaded bundles are stored, it must be the bundle directory of the runtime.
+     * @param maxBundleBytes larger uploads are rejected.
+     * @param interner       interns sources of deployed deployments.
+     */
+    public ControlServerVerticle(String host, int port, HttpConfig http, ServerVerticle serverVerticle,
+                                 ContentStore bundles, long maxBundleBytes, SourceInterner interner) {
         this.serverVerticle = serverVerticle;
+        this.bundles = bundles;
+        this.maxBundleBytes = maxBundleBytes;
+        this.interner = interner;
+        this.http = http;
         this.mapper = JsonMapper.builder()
                 .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
                 .build();
@@ -51,7 +76,10 @@ public class ControlServerVerticle extends AbstractVerticle {
     public void start(Promise<Void> startPromise) throws Exception {
         var router = Router.router(vertx);
         router.post("/deploy").handler(this::onPostDeploy);
-        getVertx().createHttpServer()
+        router.post("/bundle").handler(this::onPostBundle);
+        router.get("/stats").handler(this::onGetStats);
+        router.delete("/cache/:name").handler(this::onDeleteCache);
+        getVertx().createHttpServer(http.toServerOptions())
                 .requestHandler(router)
                 .listen(port, host)
                 .onComplete(it -> {
@@ -65,12 +93,112 @@ public class ControlServerVerticle extends AbstractVerticle {
         log.info("Processing a new deployment request");
         routingContext.request().bodyHandler(buffer -> {
             try {
-                var deployment = mapper.readValue(buffer.getBytes(), Deployment.class);
-                serverVerticle.deploy(deployment);
-                routingContext.response().end();
+                var deployment = mapper.readerFor(Deployment.class)
+                        .withAttribute(SourceInterner.ATTRIBUTE, interner)
+                        .<Deployment>readValue(buffer.getBytes());
+                var force = Boolean.parseBoolean(routingContext.queryParams().get("force"));
+                // tells the client that nothing was restarted, instead of skipping it silently.
+                var unchanged = !force && serverVerticle.isDeployed(deployment);
+                serverVerticle.deploy(deployment, force)
+                        .onSuccess(name -> routingContext.response()
+                                .putHeader("Content-Type", "application/json")
+                                .end(Buffer.buffer(mapper.createObjectNode()
+                                        .put("name", name)
+                                        .put("unchanged", unchanged)
+                                        .toString())))
+                        .onFailure(routingContext::fail);
             } catch (Exception e) {
                 routingContext.fail(e);
             }
         });
     }
+
+    /**
+     * Streams the archive to disk instead of buffering it, then responds with its digest for deployments to refer to.
+     * The size must be declared up front, so that large uploads are rejected before anything is written.
+     */
+    private void onPostBundle(RoutingContext routingContext) {
+        var request = routingContext.request();
+        var length = parseContentLength(request.getHeader(HttpHeaders.CONTENT_LENGTH));
+        if (length < 0) {
+            routingContext.fail(411);
+            return;
+        }
+        if (length > maxBundleBytes) {
+            routingContext.fail(413);
+            return;
+        }
+        request.pause();
+        getVertx().executeBlocking(bundles::createTempFile).onComplete(created -> {
+            if (created.failed()) {
+                routingContext.fail(created.cause());
+                return;
+            }
+            var temp = created.result();
+            getVertx().fileSystem().open(temp.toString(), new OpenOptions().setWrite(true))
+                    .compose(request::pipeTo)
+                    .compose(v -> getVertx().executeBlocking(() -> {
+                        // the declared length isn't enforced by every protocol, e.g. h2.
+                        if (Files.size(temp) > maxBundleBytes) {
+                            throw new IOException("Bundle is larger than " + maxBundleBytes + " bytes");
+                        }
+                        // rejects broken archives before they can be deployed.
+                        try (var ignored = ArchiveFileSystem.open(temp, temp.getRoot())) {
+                            return bundles.putFile(temp);
+                        }
+                    }))
+                    .onSuccess(digest -> {
+                        log.info("Received bundle {}", digest);
+                        routingContext.response()
+                                .putHeader("Content-Type", "application/json")
+                                .end(Buffer.buffer(mapper.createObjectNode().put("bundle", digest).toString()));
+                    })
+                    .onFailure(err -> {
+                        getVertx().fileSystem().delete(temp.toString());
+                        log.error("Cannot receive bundle", err);
+                        routingContext.fail(400, err);
+                    });
+        });
+    }
+
+    /**
+     * @return the declared length, or -1 if it's missing or invalid.
+     */
+    private static long parseContentLength(String header) {
+        if (header == null) return -1;
+        try {
+            return Long.parseLong(header.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Purges cached responses of a deployment.
+     */
+    private void onDeleteCache(RoutingContext routingContext) {
+        var responseCache = serverVerticle.getResponseCache();
+        if (responseCache == null) {
+            routingContext.fail(404);
+            return;
+        }
+        var purged = responseCache.purge(routingContext.pathParam("name").toLowerCase());
+        routingContext.response()
+                .putHeader("Content-Type", "application/json")
+                .end(Buffer.buffer(mapper.createObjectNode().put("purged", purged).toString()));
+    }
+
+    @SneakyThrows
+    private void onGetStats(RoutingContext routingContext) {
+        var stats = new LinkedHashMap<String, Object>();
+        stats.put("workers", serverVerticle.getWorkerRouter().getStats());
+        stats.put("runtime", serverVerticle.getRuntime().getStats());
+        stats.put("sources", interner.getStats());
+        var responseCache = serverVerticle.getResponseCache();
+        if (responseCache != null) stats.put("cache", responseCache.getStats());
+        stats.put("coalescing", serverVerticle.getCoalescer().getStats());
+        routingContext.response()
+                .putHeader("Content-Type", "application/json")
+                .end(Buffer.buffer(mapper.writeValueAsBytes(stats)));
+    }
 }
@@ -23,6 +23,8 @@ import io.ib67.edge.serializer.SourceDeserializer;
 import io.ib67.edge.serializer.SourceSerializer;
 import org.graalvm.polyglot.Source;
 
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 public record Deployment(
@@ -30,9 +32,29 @@ public record Deployment(
         Map<String, String> env,
         @JsonSerialize(using = SourceSerializer.class)
         @JsonDeserialize(using = SourceDeserializer.class)
-        Source source
+        Source source,
+        int instances, // 0 to follow the server default, -1 for one instance per event loop
+        List<String> hosts, // custom host names, "*.suffix" wildcards or "*" for the default route
+        int maxInFlight, // per instance, 0 to follow the server default, -1 for unlimited
+        int maxQueued, // per instance, 0 to follow the server default, -1 for unlimited
+        String bundle, // digest of an uploaded archive, the source is loaded from it instead
+        String entrypoint, // path of the entry module in the bundle
+        int idleTimeoutSeconds, // 0 to follow the server default, -1 to keep the worker forever
+        long maxStatements, // per request, 0 to follow the server default, -1 for unlimited
+        int maxHeapMegabytes, // retained by the context, 0 to follow the server default, -1 for unlimited
+        int maxCpuTimeMillis, // per request, 0 to follow the server default, -1 for unlimited
+        boolean cacheResponses, // responses allowing shared caching are served from the response cache
+        List<String> coalesceHeaders // request headers telling apart concurrent identical GETs, null to not coalesce them
 ) {
+    public static final String DEFAULT_ENTRYPOINT = "index.mjs";
+
     public Deployment {
         if(env == null) env = Map.of();
+        if(hosts == null) hosts = List.of();
+        if(coalesceHeaders != null) coalesceHeaders = coalesceHeaders.stream().map(it -> it.toLowerCase(Locale.ROOT)).toList();
+        if(bundle != null && entrypoint == null) entrypoint = DEFAULT_ENTRYPOINT;
+        if(source == null && bundle == null) {
+            throw new IllegalArgumentException("Either a source or a bundle is required");
+        }
     }
 }
@@ -32,11 +32,13 @@ import io.ib67.edge.init.MainModule;
 import io.ib67.edge.init.PluginInitModule;
 import io.ib67.edge.init.PluginPreInitModule;
 import io.ib67.edge.plugin.EdgePluginManager;
+import io.ib67.edge.script.ScriptRuntime;
 import io.ib67.kiwi.event.HierarchyEventBus;
 import io.ib67.kiwi.event.api.EventBus;
 import io.ib67.kiwi.routine.Result;
 import io.ib67.kiwi.routine.Uni;
 import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
 import lombok.Getter;
 import lombok.SneakyThrows;
 import lombok.extern.log4j.Log4j2;
@@ -45,6 +47,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
 
 @Log4j2
 public class Edge {
@@ -62,13 +65,29 @@ public class Edge {
         log.info("Initializing edge server...");
         var serverConfig = loadConfig();
         var bus = new HierarchyEventBus();
-        var injector = Guice.createInjector(new MainModule(bus, serverConfig, Vertx.vertx()));
+        var vertx = Vertx.vertx(new VertxOptions().setPreferNativeTransport(serverConfig.nativeTransport()));
+        if (serverConfig.nativeTransport() && !vertx.isNativeTransportEnabled()) {
+            log.warn("Native transport is unavailable, falling back to NIO", vertx.unavailableNativeTransportCause());
+        }
+        var injector = Guice.createInjector(new MainModule(bus, serverConfig, vertx));
         var pm = new EdgePluginManager(Path.of("plugins"));
         loadPlugins(pm, injector);
         log.info("Server started! ({}s)", (System.currentTimeMillis() - begin) / 1000);
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             log.info("Shutting down server...");
             bus.post(ServerStopEvent.INSTANCE);
+            try {
+                // undeploys every verticle, so no worker is running scripts when the engines are closed.
+                vertx.close().toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                log.error("Error occurred when closing Vert.x", e);
+            }
+            try {
+                // engines write their code cache on close.
+                injector.getInstance(ScriptRuntime.class).close();
+            } catch (Exception e) {
+                log.error("Error occurred when closing the script runtime", e);
+            }
         }));
         initREPL(bus);
     }
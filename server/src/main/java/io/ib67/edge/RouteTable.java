@@ -0,0 +1,247 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package io.ib67.edge;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An immutable table from host names to routing targets. Tables are never modified once built,
+ * so they can be shared between event loops and swapped atomically as a whole.
+ * <p>
+ * Lookups don't allocate: the Host header is hashed and compared case-insensitively in place.
+ * Matching precedence is: exact host, then the first DNS label (which is how deployments are
+ * addressed by name), then the longest {@code *.suffix} wildcard, then the default route.
+ */
+public final class RouteTable<T> {
+    private static final RouteTable<?> EMPTY = new RouteTable<>(Map.of(), Map.of(), Map.of(), null);
+    private final Table<T> hosts;
+    private final Table<T> labels;
+    private final Table<T> wildcards;
+    private final T defaultRoute;
+
+    private RouteTable(Map<String, T> hosts, Map<String, T> labels, Map<String, T> wildcards, T defaultRoute) {
+        this.hosts = new Table<>(hosts);
+        this.labels = new Table<>(labels);
+        this.wildcards = new Table<>(wildcards);
+        this.defaultRoute = defaultRoute;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> RouteTable<T> empty() {
+        return (RouteTable<T>) EMPTY;
+    }
+
+    public static <T> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    /**
+     * @param host value of the Host header, port is allowed.
+     * @return the target, or null if nothing matches and there is no default route.
+     */
+    public T lookup(CharSequence host) {
+        if (host == null) return defaultRoute;
+        var end = hostEnd(host);
+        if (end == 0) return defaultRoute;
+        // hash from right to left, so every dot gives us the hash of the suffix behind it.
+        var hash = 0;
+        var firstDot = -1;
+        T wildcard = null;
+        for (int i = end - 1; i >= 0; i--) {
+            var c = host.charAt(i);
+            if (c == '.' && i > 0 && i < end - 1) {
+                var matched = wildcards.get(host, i + 1, end, hash);
+                if (matched != null) wildcard = matched;
+                firstDot = i;
+            }
+            hash = hash * 31 + lower(c);
+        }
+        var exact = hosts.get(host, 0, end, hash);
+        if (exact != null) return exact;
+        if (firstDot != -1) {
+            var label = labels.get(host, 0, firstDot, hash(host, 0, firstDot));
+            if (label != null) return label;
+        }
+        return wildcard != null ? wildcard : defaultRoute;
+    }
+
+    public int size() {
+        return hosts.size + labels.size + wildcards.size + (defaultRoute == null ? 0 : 1);
+    }
+
+    /**
+     * Strips the port and the trailing dot of a FQDN. IPv6 literals keep their brackets.
+     */
+    private static int hostEnd(CharSequence host) {
+        var length = host.length();
+        var end = length;
+        if (length > 0 && host.charAt(0) == '[') {
+            for (int i = 1; i < length; i++) {
+                if (host.charAt(i) == ']') return i + 1;
+            }
+            return length;
+        }
+        for (int i = 0; i < length; i++) {
+            if (host.charAt(i) == ':') {
+                end = i;
+                break;
+            }
+        }
+        if (end > 0 && host.charAt(end - 1) == '.') end--;
+        return end;
+    }
+
+    private static int hash(CharSequence s, int from, int to) {
+        var hash = 0;
+        for (int i = to - 1; i >= from; i--) {
+            hash = hash * 31 + lower(s.charAt(i));
+        }
+        return hash;
+    }
+
+    // host names are ASCII (IDNs arrive in punycode), so there is no need for locale-aware lowering.
+    private static char lower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static String lower(String s) {
+        var chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = lower(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Open addressing with linear probing. Keys are stored lower-cased.
+     */
+    private static final class Table<T> {
+        private final int[] hashes;
+        private final String[] keys;
+        private final Object[] values;
+        private final int mask;
+        private final int size;
+
+        private Table(Map<String, T> entries) {
+            var capacity = Integer.highestOneBit(Math.max(entries.size() * 2, 1) * 2 - 1);
+            this.hashes = new int[capacity];
+            this.keys = new String[capacity];
+            this.values = new Object[capacity];
+            this.mask = capacity - 1;
+            this.size = entries.size();
+            for (var entry : entries.entrySet()) {
+                var key = entry.getKey();
+                var hash = hash(key, 0, key.length());
+                var index = spread(hash) & mask;
+                while (keys[index] != null) index = (index + 1) & mask;
+                hashes[index] = hash;
+                keys[index] = key;
+                values[index] = entry.getValue();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private T get(CharSequence s, int from, int to, int hash) {
+            if (size == 0) return null;
+            var index = spread(hash) & mask;
+            String key;
+            while ((key = keys[index]) != null) {
+                if (hashes[index] == hash && regionEquals(key, s, from, to)) {
+                    return (T) values[index];
+                }
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+
+        private static boolean regionEquals(String key, CharSequence s, int from, int to) {
+            if (key.length() != to - from) return false;
+            for (int i = from; i < to; i++) {
+                if (key.charAt(i - from) != lower(s.charAt(i))) return false;
+            }
+            return true;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    public static final class Builder<T> {
+        private final Map<String, T> hosts = new LinkedHashMap<>();
+        private final Map<String, T> labels = new LinkedHashMap<>();
+        private final Map<String, T> wildcards = new LinkedHashMap<>();
+        private T defaultRoute;
+
+        private Builder() {
+        }
+
+        /**
+         * Accepts {@code *} for the default route, {@code *.suffix} for wildcards and full host names.
+         */
+        public Builder<T> route(String pattern, T target) {
+            Objects.requireNonNull(pattern);
+            if (pattern.equals("*")) return defaultRoute(target);
+            if (pattern.startsWith("*.")) return wildcard(pattern.substring(2), target);
+            return host(pattern, target);
+        }
+
+        public Builder<T> host(String host, T target) {
+            hosts.put(checkName(host), Objects.requireNonNull(target));
+            return this;
+        }
+
+        /**
+         * Routes every host whose first DNS label equals to {@code label}.
+         */
+        public Builder<T> label(String label, T target) {
+            if (label.indexOf('.') != -1) {
+                throw new IllegalArgumentException("A label cannot contain dots: " + label);
+            }
+            labels.put(checkName(label), Objects.requireNonNull(target));
+            return this;
+        }
+
+        /**
+         * Routes every host ending with {@code .suffix}. The suffix itself isn't matched.
+         */
+        public Builder<T> wildcard(String suffix, T target) {
+            wildcards.put(checkName(suffix), Objects.requireNonNull(target));
+            return this;
+        }
+
+        public Builder<T> defaultRoute(T target) {
+            this.defaultRoute = target;
+            return this;
+        }
+
+        private static String checkName(String name) {
+            if (name.isEmpty() || name.startsWith(".") || name.endsWith(".")
+                    || name.indexOf('*') != -1 || name.indexOf(':') != -1) {
+                throw new IllegalArgumentException("Invalid host pattern: " + name);
+            }
+            return lower(name);
+        }
+
+        public RouteTable<T> build() {
+            return new RouteTable<>(hosts, labels, wildcards, defaultRoute);
+        }
+    }
+}
@@ -17,35 +17,37 @@
 
 package io.ib67.edge;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.ib67.edge.api.EdgeServer;
 import io.ib67.edge.api.event.AsyncWorkerContextEvent;
-import io.ib67.edge.api.event.ComponentInitEvent;
 import io.ib67.edge.api.event.PreRequestEvent;
+import io.ib67.edge.cache.RequestCoalescer;
+import io.ib67.edge.cache.ResponseCache;
+import io.ib67.edge.cache.ResponseRecorder;
 import io.ib67.edge.config.ServerConfig;
+import io.ib67.edge.script.ContextLimits;
 import io.ib67.edge.script.ScriptRuntime;
 import io.ib67.edge.script.watchdog.Watchdog;
-import io.ib67.edge.serializer.AnyMessageCodec;
-import io.ib67.edge.serializer.HttpRequestBox;
 import io.ib67.edge.worker.ScriptWorker;
 import io.ib67.edge.worker.Worker;
+import io.ib67.edge.worker.WorkerLimits;
 import io.ib67.kiwi.event.api.EventBus;
 import io.ib67.kiwi.routine.Result;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpServerRequest;
 import lombok.Getter;
 import lombok.SneakyThrows;
 import lombok.extern.log4j.Log4j2;
+import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.Value;
 
+import java.io.IOException;
 import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.Executors;
-
-import static java.lang.Math.max;
 
 @Log4j2
 public class ServerVerticle extends AbstractVerticle implements EdgeServer {
@@ -57,47 +59,161 @@ public class ServerVerticle extends AbstractVerticle implements EdgeServer {
     protected final ScriptRuntime runtime;
     protected final EventBus eventBus;
     protected final Watchdog watchdog;
-    protected WorkerRouter workerRouter;
+    protected final ServerConfig config;
+    @Getter
+    protected final WorkerRouter workerRouter;
+    @Getter
+    protected final ResponseCache responseCache;
+    @Getter
+    protected final RequestCoalescer coalescer;
+    protected final ResponseRecorder recorder;
 
-    public ServerVerticle(ServerConfig config, ScriptRuntime runtime, EventBus eventBus) {
+    /**
+     * Multiple instances can share the same router and watchdog, Vert.x balances connections between
+     * instances listening on the same port.
+     *
+     * @param responseCache shared by instances too, null to disable caching.
+     * @param coalescer     shared by instances too, so identical requests on different event loops are coalesced.
+     * @param recorder      used by the cache and the coalescer, it's installed on every script worker.
+     */
+    public ServerVerticle(
+            ServerConfig config,
+            ScriptRuntime runtime,
+            EventBus eventBus,
+            WorkerRouter workerRouter,
+            Watchdog watchdog,
+            ResponseCache responseCache,
+            RequestCoalescer coalescer,
+            ResponseRecorder recorder
+    ) {
+        this.config = config;
         this.host = config.listenHost();
         this.runtime = runtime;
         this.port = config.listenPort();
         this.eventBus = eventBus;
-        this.watchdog = new Watchdog(
-                Executors.newSingleThreadScheduledExecutor(
-                        new ThreadFactoryBuilder().setNameFormat("watchdog-%d").build()
-                ), Duration.ofMillis(max(config.runtime().watchdogThresholdMillis(), 50))
-        );
+        this.workerRouter = workerRouter;
+        this.watchdog = watchdog;
+        this.responseCache = responseCache;
+        this.coalescer = coalescer;
+        this.recorder = recorder;
     }
 
     @Override
     public void start(Promise<Void> startPromise) throws Exception {
-        getVertx().eventBus().registerDefaultCodec(HttpRequestBox.class, new AnyMessageCodec<>(HttpRequestBox.class));
-        workerRouter = new WorkerRouter(getVertx());
-        getVertx().createHttpServer()
-                .requestHandler(this::onRequest)
-                .listen(port, host)
+        // there is a server verticle on every event loop by default, prepare the loop for workers deployed later.
+        // the preparation is done off the loop, only installing it runs here.
+        var begin = System.nanoTime();
+        getVertx().executeBlocking(runtime::prepareThread, false)
+                .onSuccess(install -> {
+                    install.run();
+                    log.info("Warmed up {} in {} ms", Thread.currentThread().getName(), (System.nanoTime() - begin) / 1_000_000);
+                })
+                .onFailure(t -> log.warn("Failed to warm up {}, it's prepared on the first request instead",
+                        Thread.currentThread().getName(), t))
+                .transform(ar -> getVertx().createHttpServer(config.http().toServerOptions())
+                        .requestHandler(this::onRequest)
+                        .listen(port, host))
                 .onComplete(it -> {
                     log.info("Server verticle {} is listening on {}:{} ", this.deploymentID(), host, port);
                     startPromise.complete();
                 });
-        eventBus.post(new ComponentInitEvent<>(this, EdgeServer.class));
     }
 
 
+    @Override
+    public boolean isDeployed(Deployment deployment) {
+        // sources are interned on deserialization, so comparing an unchanged deployment is cheap.
+        return deployment.equals(workerRouter.getDeployment(deployment.name()));
+    }
+
+    @Override
     @SneakyThrows
-    public Future<String> deploy(Deployment deployment) {
+    public Future<String> deploy(Deployment deployment, boolean force) {
+        if (!force && isDeployed(deployment)) {
+            log.info("Deployment {} is unchanged, skipping. Force the deployment to restart its workers.", deployment.name());
+            return Future.succeededFuture(deployment.name());
+        }
+        Source source;
+        try {
+            source = resolveSource(deployment);
+        } catch (Exception e) {
+            log.error("Cannot load the source of deployment {}", deployment.name(), e);
+            return Future.failedFuture(e);
+        }
         return workerRouter.registerWorker(
-                deployment.name(),
-                () -> Result.fromAny(() -> runtime.create(deployment.source(), v -> injectDependencies(v, deployment)))
+                deployment,
+                resolveInstances(deployment),
+                resolveIdleTimeout(deployment),
+                () -> Result.fromAny(() -> runtime.create(
+                                source,
+                                v -> injectDependencies(v, deployment),
+                                resolveContextLimits(deployment),
+                                deployment.bundle()))
                         .map(scriptContext -> new ScriptWorker(
                                 scriptContext,
                                 deployment,
                                 watchdog,
+                                config.runtime().dispatchMode(),
+                                resolveLimits(deployment),
+                                recorder,
+                                (worker, kind) -> workerRouter.onLimitExceeded(deployment.name(), worker, kind),
                                 () -> log.info("ScriptWorker {} is shutting down...", deployment.name()))
                         ).orElseThrow()
-        ).onFailure(err -> log.error("Cannot deploy worker for deployment {}", deployment.name(), err));
+        ).onSuccess(id -> {
+            var name = deployment.name().toLowerCase();
+            // responses of the previous version are stale now.
+            if (responseCache != null) {
+                responseCache.purge(name);
+                if (deployment.cacheResponses()) {
+                    responseCache.enable(name);
+                } else {
+                    responseCache.disable(name);
+                }
+            }
+            if (deployment.coalesceHeaders() != null) {
+                coalescer.enable(name, deployment.coalesceHeaders());
+            } else {
+                coalescer.disable(name);
+            }
+        }).onFailure(err -> log.error("Cannot deploy worker for deployment {}", deployment.name(), err));
+    }
+
+    protected Source resolveSource(Deployment deployment) throws IOException {
+        if (deployment.bundle() == null) return deployment.source();
+        return runtime.loadBundle(deployment.bundle(), deployment.entrypoint());
+    }
+
+    protected int resolveInstances(Deployment deployment) {
+        var instances = deployment.instances() == 0
+                ? config.runtime().instancesPerDeployment()
+                : deployment.instances();
+        // Edge runs on a Vertx with default options.
+        return instances < 0 ? VertxOptions.DEFAULT_EVENT_LOOP_POOL_SIZE : instances;
+    }
+
+    protected Duration resolveIdleTimeout(Deployment deployment) {
+        var seconds = deployment.idleTimeoutSeconds() == 0
+                ? config.runtime().idleTimeoutSeconds()
+                : deployment.idleTimeoutSeconds();
+        return seconds <= 0 ? Duration.ZERO : Duration.ofSeconds(seconds);
+    }
+
+    protected WorkerLimits resolveLimits(Deployment deployment) {
+        var runtime = config.runtime();
+        return new WorkerLimits(
+                deployment.maxInFlight() == 0 ? runtime.maxInFlight() : deployment.maxInFlight(),
+                deployment.maxQueued() == 0 ? runtime.maxQueued() : deployment.maxQueued(),
+                runtime.retryAfterSeconds()
+        );
+    }
+
+    protected ContextLimits resolveContextLimits(Deployment deployment) {
+        var runtime = config.runtime();
+        return ContextLimits.of(
+                deployment.maxStatements() == 0 ? runtime.maxStatements() : deployment.maxStatements(),
+                deployment.maxHeapMegabytes() == 0 ? runtime.maxHeapMegabytes() : deployment.maxHeapMegabytes(),
+                deployment.maxCpuTimeMillis() == 0 ? runtime.maxCpuTimeMillis() : deployment.maxCpuTimeMillis()
+        );
     }
 
     private void injectDependencies(Value value, Deployment deployment) {
@@ -113,7 +229,7 @@ public class ServerVerticle extends AbstractVerticle implements EdgeServer {
     }
 
     private void onRequest(HttpServerRequest httpServerRequest) {
-        var host = httpServerRequest.getHeader("Host");
+        var host = httpServerRequest.getHeader(HttpHeaders.HOST);
         var event = new PreRequestEvent(httpServerRequest);
         eventBus.post(event);
         if (event.isIntercepted()) return;
@@ -121,27 +237,51 @@ public class ServerVerticle extends AbstractVerticle implements EdgeServer {
             httpServerRequest.end();
             return;
         }
-        var firstDot = host.indexOf(".");
-        if (firstDot == -1) {
-            httpServerRequest.response().setStatusCode(400);
-            httpServerRequest.end();
-            return;
-        }
-        var prefix = host.substring(0, firstDot);
-        var worker = workerRouter.getWorker(prefix);
+        var routed = workerRouter.lookup(host);
+        var deployment = routed == null ? null : routed.name();
+        var worker = routed == null ? null : routed.worker();
         event.setWorker(worker);
         eventBus.post(event);
+        if (event.isIntercepted()) return;
+        // a worker replaced by plugins doesn't respond on behalf of the deployment.
+        if (event.getWorker() != worker) deployment = null;
         worker = event.getWorker();
-        if (worker != null) {
-            worker.handleRequest(getVertx(), httpServerRequest);
-        } else {
-            httpServerRequest.response().setStatusCode(404);
+        if (worker == null) {
+            // a host without a dot has no label to name a deployment by, unless it's routed explicitly.
+            var status = routed == null && host.indexOf('.') == -1 ? 400 : 404;
+            httpServerRequest.response().setStatusCode(status);
             httpServerRequest.response().end();
+            return;
+        }
+        if (deployment == null) {
+            worker.handleRequest(getVertx(), httpServerRequest);
+            return;
         }
+        // looked up after plugins have seen the request, so a denied request is never served from the cache.
+        var cache = responseCache;
+        if (cache != null) {
+            var cached = cache.lookup(deployment, httpServerRequest);
+            if (cached != null) {
+                cache.serve(cached, httpServerRequest);
+                return;
+            }
+        }
+        var name = deployment;
+        var target = worker;
+        // requests answered by an identical one never run the script, so they are recorded when dispatched.
+        coalescer.dispatch(deployment, httpServerRequest, request -> {
+            if (cache != null) cache.record(name, request);
+            target.handleRequest(getVertx(), request);
+        });
     }
 
     @Override
     public Map<String, Worker> getWorkers() {
         return workerRouter.getWorkers();
     }
+
+    @Override
+    public Map<String, Deployment> getDeployments() {
+        return workerRouter.getDeployments();
+    }
 }
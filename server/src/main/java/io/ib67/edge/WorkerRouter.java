@@ -17,24 +17,41 @@
 
 package io.ib67.edge;
 
+import io.ib67.edge.script.ContextLimits;
+import io.ib67.edge.serializer.AnyMessageCodec;
+import io.ib67.edge.serializer.HttpRequestBox;
+import io.ib67.edge.worker.PendingWorker;
 import io.ib67.edge.worker.Worker;
+import io.ib67.edge.worker.WorkerGroup;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
-import lombok.AllArgsConstructor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 
-import java.util.Map;
+import java.time.Duration;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Function;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Log4j2
-@RequiredArgsConstructor
 public class WorkerRouter {
+    protected static final long DRAIN_CHECK_INTERVAL_MILLIS = 50;
+    protected static final long IDLE_CHECK_INTERVAL_MILLIS = 1000;
     protected final Vertx vertx;
+    protected final Duration drainTimeout;
     protected final Map<String, WorkerInfo> nameToWorkers = new ConcurrentHashMap<>();
+    protected volatile RouteTable<WorkerInfo> routes = RouteTable.empty();
+    protected final AtomicBoolean idleCheckStarted = new AtomicBoolean();
+
+    public WorkerRouter(Vertx vertx, Duration drainTimeout) {
+        this.vertx = vertx;
+        this.drainTimeout = drainTimeout;
+        // used by DispatchMode.EVENT_BUS
+        vertx.eventBus().registerDefaultCodec(HttpRequestBox.class, new AnyMessageCodec<>(HttpRequestBox.class));
+    }
 
     public boolean containsWorker(String name) {
         return nameToWorkers.containsKey(name.toLowerCase());
@@ -42,54 +59,345 @@ public class WorkerRouter {
 
     public Worker getWorker(String name) {
         name = name.toLowerCase();
-        var wi = nameToWorkers.get(name);
+        return select(nameToWorkers.get(name));
+    }
+
+    /**
+     * @param host value of the Host header
+     */
+    public Worker route(CharSequence host) {
+        return select(routes.lookup(host));
+    }
+
+    /**
+     * Looks the route table up once for both the name of the deployment and its worker.
+     *
+     * @param host value of the Host header
+     * @return null if no deployment serves the host.
+     */
+    public Route lookup(CharSequence host) {
+        var wi = routes.lookup(host);
+        return wi == null ? null : new Route(wi.name, select(wi));
+    }
+
+    /**
+     * @param worker null if the deployment can't serve requests, e.g. it failed to start.
+     */
+    public record Route(String name, Worker worker) {
+    }
+
+    protected Worker select(WorkerInfo wi) {
         if (wi == null) return null;
         var status = wi.status;
-        if (status != WorkerInfo.Status.NORMAL) {
-            log.warn("Worker {} is in status {}", name, status);
-            return null;
+        var group = wi.group;
+        if (status == WorkerInfo.Status.NORMAL && group != null) return group.select();
+        // the group may be evicted right after the status is read.
+        if (status == WorkerInfo.Status.IDLE || status == WorkerInfo.Status.NORMAL) return revive(wi);
+        log.warn("Worker {} is in status {}", wi.name, status);
+        return null;
+    }
+
+    public Deployment getDeployment(String name) {
+        var wi = nameToWorkers.get(name.toLowerCase());
+        return wi == null ? null : wi.deployment;
+    }
+
+    /**
+     * @return deployments which are serving or evicted for being idle.
+     */
+    public Map<String, Deployment> getDeployments() {
+        var deployments = new HashMap<String, Deployment>();
+        for (var info : nameToWorkers.values()) {
+            var deployment = info.deployment;
+            if (deployment == null) continue;
+            if (info.status == WorkerInfo.Status.NORMAL || info.status == WorkerInfo.Status.IDLE) {
+                deployments.put(info.name, deployment);
+            }
         }
-        return wi.worker;
+        return deployments;
     }
 
-    public Future<String> registerWorker(String _name, Supplier<Worker> worker) {
+    /**
+     * Same as {@link #registerWorker(String, List, int, Supplier)}, but the worker is evicted after
+     * {@code idleTimeout} without requests, and is started again by the next request. Only the deployment
+     * is kept while it's idle.
+     *
+     * @param idleTimeout zero to keep the worker forever.
+     */
+    public Future<String> registerWorker(Deployment deployment, int instances, Duration idleTimeout, Supplier<Worker> worker) {
+        if (!idleTimeout.isZero() && idleCheckStarted.compareAndSet(false, true)) {
+            vertx.setPeriodic(IDLE_CHECK_INTERVAL_MILLIS, timer -> evictIdleWorkers());
+        }
+        return registerWorker(deployment.name(), deployment.hosts(), instances, deployment, idleTimeout, worker);
+    }
+
+    /**
+     * Deploys a new version of the worker alongside the running one, if there is any.
+     * Requests are switched to the new version only after all of its instances have started,
+     * then the old version is drained and undeployed. A failed deployment leaves the old version serving.
+     */
+    public Future<String> registerWorker(String name, List<String> hosts, int instances, Supplier<Worker> worker) {
+        return registerWorker(name, hosts, instances, null, Duration.ZERO, worker);
+    }
+
+    protected Future<String> registerWorker(
+            String _name,
+            List<String> hosts,
+            int instances,
+            Deployment deployment,
+            Duration idleTimeout,
+            Supplier<Worker> worker
+    ) {
         var name = _name.toLowerCase();
-        var oldWorker = nameToWorkers.get(name);
-        if (oldWorker != null) {
-            if (oldWorker.status != WorkerInfo.Status.NORMAL) {
-                throw new IllegalStateException("Worker " + name + " is " + oldWorker.status + ", please try again later!");
+        var claimedHosts = hosts.stream().map(String::toLowerCase).toList();
+        WorkerInfo wi;
+        // hosts are checked and claimed atomically, so concurrent deployments can't take the same host.
+        synchronized (this) {
+            try {
+                checkHosts(name, hosts);
+            } catch (IllegalArgumentException e) {
+                return Future.failedFuture(e);
             }
-            var w = oldWorker.worker;
-            oldWorker.status = WorkerInfo.Status.DEPLOYING;
-            log.info("Redeploying worker {}", name);
-            return vertx.undeploy(w.deploymentID())
-                    .onFailure(t -> log.error("Error occurred when undeploying worker {}", name, t))
-                    .compose(deployWorker(name, worker))
-                    .onFailure(f -> {
-                        oldWorker.status = WorkerInfo.Status.ERROR;
-                        log.error("Failed to redeploy worker {}", name, f);
-                    });
+            wi = nameToWorkers.computeIfAbsent(name, WorkerInfo::new);
+            if (!wi.updating.compareAndSet(false, true)) {
+                throw new IllegalStateException("Worker " + name + " is being deployed, please try again later!");
+            }
+            wi.claimedHosts = claimedHosts;
         }
-        var wi = new WorkerInfo(null, WorkerInfo.Status.DEPLOYING);
-        nameToWorkers.put(name, wi);
-        return deployWorker(name, worker).apply(null)
+        var previous = wi.group;
+        log.info("{} worker {} with {} instance(s)", previous == null ? "Deploying" : "Redeploying", name, instances);
+        return deployGroup(instances, worker)
+                .onSuccess(group -> {
+                    wi.hosts = claimedHosts;
+                    wi.claimedHosts = List.of();
+                    wi.instances = instances;
+                    wi.factory = worker;
+                    wi.deployment = deployment;
+                    wi.idleTimeoutNanos = idleTimeout.toNanos();
+                    wi.markActive(0);
+                    wi.group = group;
+                    wi.status = WorkerInfo.Status.NORMAL;
+                    wi.updating.set(false);
+                    rebuildRoutes();
+                    log.info("Deployed worker {}", name);
+                    if (previous != null) retire(name, previous);
+                })
                 .onFailure(f -> {
-                    log.error("Error occurred when deploying worker {}", name, f);
-                    wi.status = WorkerInfo.Status.ERROR;
-                });
+                    wi.claimedHosts = List.of();
+                    wi.updating.set(false);
+                    if (previous == null) {
+                        wi.status = WorkerInfo.Status.ERROR;
+                        log.error("Error occurred when deploying worker {}", name, f);
+                    } else {
+                        log.error("Failed to redeploy worker {}, the previous version keeps serving", name, f);
+                    }
+                })
+                .map(group -> group.primary().deploymentID());
+    }
+
+    /**
+     * Waits for in-flight requests of a replaced group to finish, at most {@link #drainTimeout}.
+     * The first check is delayed by a tick since requests may have selected an instance right before the swap.
+     */
+    protected void retire(String name, WorkerGroup group) {
+        var deadline = System.nanoTime() + drainTimeout.toNanos();
+        vertx.setPeriodic(DRAIN_CHECK_INTERVAL_MILLIS, timer -> {
+            var inFlight = group.getInFlight();
+            var timeout = System.nanoTime() - deadline > 0;
+            if (inFlight > 0 && !timeout) return;
+            vertx.cancelTimer(timer);
+            if (inFlight > 0) {
+                log.warn("Undeploying the previous version of {} with {} requests still in flight", name, inFlight);
+            }
+            undeployGroup(group)
+                    .onSuccess(v -> log.info("The previous version of worker {} has been undeployed", name))
+                    .onFailure(t -> log.error("Error occurred when undeploying worker {}", name, t));
+        });
+    }
+
+    /**
+     * Evicts groups which had neither new nor in-flight requests during their idle timeout.
+     */
+    protected void evictIdleWorkers() {
+        var now = System.nanoTime();
+        for (var wi : nameToWorkers.values()) {
+            var group = wi.group;
+            if (wi.idleTimeoutNanos <= 0 || wi.status != WorkerInfo.Status.NORMAL || group == null) continue;
+            var requests = group.getRequests();
+            if (requests != wi.lastRequests || group.getInFlight() > 0) {
+                wi.markActive(requests);
+                continue;
+            }
+            if (now - wi.lastActive < wi.idleTimeoutNanos) continue;
+            if (evict(wi, group)) {
+                log.info("Worker {} has been idle for {} ms, evicted", wi.name, (now - wi.lastActive) / 1_000_000);
+            }
+        }
+    }
+
+    /**
+     * Retires the group and leaves the worker idle, the next request starts a new group.
+     *
+     * @return false if the group is no longer serving or the worker is being updated.
+     */
+    protected boolean evict(WorkerInfo wi, WorkerGroup group) {
+        if (wi.factory == null || !wi.updating.compareAndSet(false, true)) return false;
+        if (wi.group != group || wi.status != WorkerInfo.Status.NORMAL) {
+            wi.updating.set(false);
+            return false;
+        }
+        wi.status = WorkerInfo.Status.IDLE;
+        wi.group = null;
+        wi.updating.set(false);
+        retire(wi.name, group);
+        return true;
+    }
+
+    /**
+     * Counts the hit and replaces {@code worker}, whose context is cancelled by the limit.
+     */
+    public void onLimitExceeded(String name, Worker worker, ContextLimits.Kind kind) {
+        var wi = nameToWorkers.get(name.toLowerCase());
+        if (wi == null) return;
+        wi.limitHits.get(kind).increment();
+        if (replaceInstance(wi, worker)) {
+            log.info("An instance of worker {} is restarted for exceeding its {} limit", wi.name, kind);
+        }
+    }
+
+    /**
+     * Starts a new instance in place of a broken one, the other instances of the group keep serving.
+     * The broken instance is taken out of rotation at once, unless it's the only one.
+     *
+     * @return false if the instance is no longer serving or the worker is being updated.
+     */
+    protected boolean replaceInstance(WorkerInfo wi, Worker broken) {
+        if (wi.factory == null || !wi.updating.compareAndSet(false, true)) return false;
+        var group = wi.group;
+        if (group == null || wi.status != WorkerInfo.Status.NORMAL || !group.getInstances().contains(broken)) {
+            wi.updating.set(false);
+            return false;
+        }
+        var others = group.getInstances().stream().filter(it -> it != broken).toList();
+        if (!others.isEmpty()) wi.group = new WorkerGroup(others);
+        deployGroup(1, wi.factory).onComplete(ar -> {
+            if (ar.succeeded()) {
+                var instances = new ArrayList<Worker>(others);
+                instances.addAll(ar.result().getInstances());
+                wi.group = new WorkerGroup(instances);
+            } else {
+                log.error("Cannot restart an instance of worker {}", wi.name, ar.cause());
+                if (others.isEmpty()) {
+                    // the next request starts the worker again.
+                    wi.status = WorkerInfo.Status.IDLE;
+                    wi.group = null;
+                }
+            }
+            wi.updating.set(false);
+            retire(wi.name, new WorkerGroup(List.of(broken)));
+        });
+        return true;
     }
 
-    protected <A> Function<A, Future<String>> deployWorker(String name, Supplier<Worker> worker) {
-        return z -> {
-            log.info("Deploying worker {}", name);
-            return vertx.executeBlocking(worker::get)
-                    .flatMap(t -> vertx.deployVerticle(t).map(t))
-                    .onSuccess(v -> {
-                        nameToWorkers.put(name, new WorkerInfo(v, WorkerInfo.Status.NORMAL));
-                        log.info("Deployed worker {}", name);
-                    })
-                    .map(Worker::deploymentID);
-        };
+    /**
+     * Starts the group of an idle worker, requests arriving meanwhile wait for it.
+     */
+    protected Worker revive(WorkerInfo wi) {
+        var pending = wi.pending;
+        if (pending != null) return pending;
+        synchronized (wi) {
+            pending = wi.pending;
+            if (pending != null) return pending;
+            if (wi.factory == null || !wi.updating.compareAndSet(false, true)) {
+                // being deployed or evicted, the request can be retried soon.
+                return new PendingWorker(Future.failedFuture("Worker " + wi.name + " is being updated"));
+            }
+            var begin = System.nanoTime();
+            log.info("Reviving idle worker {}", wi.name);
+            var group = deployGroup(wi.instances, wi.factory).andThen(ar -> {
+                if (ar.succeeded()) {
+                    var elapsed = System.nanoTime() - begin;
+                    wi.coldStarts.increment();
+                    wi.lastColdStartNanos = elapsed;
+                    wi.markActive(0);
+                    wi.group = ar.result();
+                    wi.status = WorkerInfo.Status.NORMAL;
+                    log.info("Revived worker {} in {} ms", wi.name, elapsed / 1_000_000);
+                } else {
+                    log.error("Cannot revive worker {}", wi.name, ar.cause());
+                }
+                wi.pending = null;
+                wi.updating.set(false);
+            });
+            wi.pending = pending = new PendingWorker(group);
+            return pending;
+        }
+    }
+
+    /**
+     * Rejects hosts served or claimed by other deployments, callers claim the hosts while still holding the lock.
+     */
+    protected synchronized void checkHosts(String name, List<String> hosts) {
+        for (var info : nameToWorkers.values()) {
+            if (info.name.equals(name)) continue;
+            for (String host : hosts) {
+                var lowered = host.toLowerCase();
+                if (info.hosts.contains(lowered) || info.claimedHosts.contains(lowered)) {
+                    throw new IllegalArgumentException("Host " + host + " has been taken by " + info.name);
+                }
+            }
+        }
+        // validates patterns
+        var builder = RouteTable.<String>builder();
+        hosts.forEach(it -> builder.route(it, name));
+    }
+
+    /**
+     * Builds a new table and swaps it in, so lookups don't need any locking.
+     */
+    protected synchronized void rebuildRoutes() {
+        var builder = RouteTable.<WorkerInfo>builder();
+        for (var info : nameToWorkers.values()) {
+            // idle workers keep their routes, requests to them start the workers again.
+            if (info.group == null && info.status != WorkerInfo.Status.IDLE) continue;
+            builder.label(info.name, info);
+            for (String host : info.hosts) {
+                builder.route(host, info);
+            }
+        }
+        routes = builder.build();
+    }
+
+    /**
+     * Every instance gets its own context from the supplier. Vert.x assigns event loops to
+     * verticles in a round-robin fashion, thus instances are spread across event loops.
+     */
+    protected Future<WorkerGroup> deployGroup(int instances, Supplier<Worker> worker) {
+        var deployments = new ArrayList<Future<Worker>>(instances);
+        for (int i = 0; i < instances; i++) {
+            deployments.add(vertx.executeBlocking(worker::get, false)
+                    .compose(t -> vertx.deployVerticle(t).map(t)));
+        }
+        return Future.join(deployments).<WorkerGroup>transform(ar -> {
+            var deployed = deployments.stream()
+                    .filter(Future::succeeded)
+                    .map(Future::result)
+                    .toList();
+            if (ar.succeeded()) {
+                return Future.succeededFuture(new WorkerGroup(deployed));
+            }
+            if (deployed.isEmpty()) {
+                return Future.failedFuture(ar.cause());
+            }
+            return undeployGroup(new WorkerGroup(deployed))
+                    .<WorkerGroup>transform(ignored -> Future.failedFuture(ar.cause()));
+        });
+    }
+
+    protected Future<?> undeployGroup(WorkerGroup group) {
+        return Future.join(group.getInstances().stream()
+                .map(it -> vertx.undeploy(it.deploymentID()))
+                .toList());
     }
 
     public Map<String, Worker> getWorkers() {
@@ -98,18 +406,72 @@ public class WorkerRouter {
                 .<Map.Entry<String, Worker>>
                         mapMulti((entry, sink) -> {
                     var value = entry.getValue();
-                    if (value.status != WorkerInfo.Status.NORMAL) return;
-                    sink.accept(Map.entry(entry.getKey(), entry.getValue().worker));
+                    var group = value.group;
+                    if (value.status != WorkerInfo.Status.NORMAL || group == null) return;
+                    sink.accept(Map.entry(entry.getKey(), group.primary()));
                 }).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
     }
 
-    @AllArgsConstructor
+    public Map<String, WorkerStats> getStats() {
+        var stats = new HashMap<String, WorkerStats>();
+        for (var info : nameToWorkers.values()) {
+            var group = info.group;
+            var pending = info.pending;
+            var coldStarts = info.coldStarts.sum();
+            var coldStartMillis = info.lastColdStartNanos / 1_000_000;
+            var limitHits = new TreeMap<String, Long>();
+            info.limitHits.forEach((kind, hits) -> {
+                var sum = hits.sum();
+                if (sum > 0) limitHits.put(kind.name(), sum);
+            });
+            stats.put(info.name, group == null
+                    ? new WorkerStats(info.status.name(), 0, 0, pending == null ? 0 : pending.getQueued(), 0,
+                    coldStarts, coldStartMillis, limitHits)
+                    : new WorkerStats(
+                    info.status.name(),
+                    group.size(),
+                    group.getInFlight(),
+                    group.getQueued(),
+                    group.getShed(),
+                    coldStarts,
+                    coldStartMillis,
+                    limitHits
+            ));
+        }
+        return stats;
+    }
+
+    @RequiredArgsConstructor
     protected static class WorkerInfo {
-        protected final Worker worker;
+        protected final String name;
+        protected volatile List<String> hosts = List.of();
+        // hosts of a deployment in progress, reserved until it succeeds or fails
+        protected volatile List<String> claimedHosts = List.of();
+        protected volatile WorkerGroup group;
         protected volatile Status status = Status.DEPLOYING;
+        protected final AtomicBoolean updating = new AtomicBoolean();
+        // kept to start the group again after it's evicted
+        protected volatile int instances;
+        protected volatile Supplier<Worker> factory;
+        protected volatile Deployment deployment;
+        protected volatile long idleTimeoutNanos;
+        protected volatile PendingWorker pending;
+        protected volatile long lastRequests;
+        protected volatile long lastActive;
+        protected final LongAdder coldStarts = new LongAdder();
+        protected final Map<ContextLimits.Kind, LongAdder> limitHits = new EnumMap<>(ContextLimits.Kind.class);
+        {
+            for (var kind : ContextLimits.Kind.values()) limitHits.put(kind, new LongAdder());
+        }
+        protected volatile long lastColdStartNanos;
+
+        protected void markActive(long requests) {
+            lastRequests = requests;
+            lastActive = System.nanoTime();
+        }
 
         protected enum Status {
-            DEPLOYING, ERROR, NORMAL
+            DEPLOYING, ERROR, NORMAL, IDLE
         }
     }
 }
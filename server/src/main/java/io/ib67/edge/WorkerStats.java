@@ -0,0 +1,40 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package io.ib67.edge;
+
+import java.util.Map;
+
+/**
+ * A snapshot of the counters of a deployment, summed over its instances.
+ *
+ * @param shed            requests rejected because the instances were over their limits.
+ * @param coldStarts      how many times the worker is started again after being evicted.
+ * @param coldStartMillis time taken by the latest cold start.
+ * @param limitHits       how many times each kind of resource limit is exceeded.
+ */
+public record WorkerStats(
+        String status,
+        int instances,
+        int inFlight,
+        int queued,
+        long shed,
+        long coldStarts,
+        long coldStartMillis,
+        Map<String, Long> limitHits
+) {
+}
@@ -28,7 +28,29 @@ public interface EdgeServer {
 
     Map<String, Worker> getWorkers();
 
+    /**
+     * @return deployments by name, including those whose workers are evicted for being idle.
+     */
+    Map<String, Deployment> getDeployments();
+
     ScriptRuntime getRuntime();
 
-    Future<String> deploy(Deployment deployment);
+    /**
+     * Same as {@link #deploy(Deployment, boolean)}, but a deployment equal to the deployed one is skipped.
+     */
+    default Future<String> deploy(Deployment deployment) {
+        return deploy(deployment, false);
+    }
+
+    /**
+     * @param force whether workers are started again even if the deployment is equal to the deployed one,
+     *              see {@link #isDeployed(Deployment)}.
+     * @return the name of the deployment.
+     */
+    Future<String> deploy(Deployment deployment, boolean force);
+
+    /**
+     * @return whether an equal deployment is deployed already, deploying it again is skipped unless it's forced.
+     */
+    boolean isDeployed(Deployment deployment);
 }
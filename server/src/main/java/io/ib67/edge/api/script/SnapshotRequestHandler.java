@@ -0,0 +1,33 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge.api.script;
+
+import io.ib67.edge.api.script.http.EdgeRequest;
+import io.ib67.edge.api.script.http.RequestSnapshot;
+
+/**
+ * Handlers declaring a second parameter, like {@code handleRequest(request, snapshot)}, receive a
+ * {@link RequestSnapshot} of the request line, headers and query parameters.
+ */
+@FunctionalInterface
+@ExportToScript
+public interface SnapshotRequestHandler {
+    @ExportToScript
+    void handleRequest(EdgeRequest request, RequestSnapshot snapshot);
+}
@@ -0,0 +1,163 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge.api.script.http;
+
+import io.ib67.edge.api.script.ExportToScript;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerRequest;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
+
+/**
+ * Reads a request body chunk by chunk. The request stays paused and exactly one chunk is fetched
+ * per {@link #read()}, so a slow script applies backpressure to the client instead of buffering
+ * the whole body in memory.
+ * <p>
+ * Chunks are delivered on the context which created the stream, since that's where the guest
+ * context is entered.
+ */
+@ExportToScript
+public class BodyStream {
+    /**
+     * Adapts a {@link BodyStream} into a JS async iterable, which foreign objects cannot express.
+     */
+    protected static final Source ASYNC_ITERABLE = Source.create("js", """
+            (stream) => ({
+                [Symbol.asyncIterator]() {
+                    return this;
+                },
+                next() {
+                    return new Promise((resolve, reject) => stream.read().then(
+                        chunk => resolve(chunk == null ? { done: true, value: undefined } : { done: false, value: chunk }),
+                        reject));
+                },
+                return() {
+                    stream.cancel();
+                    return Promise.resolve({ done: true, value: undefined });
+                }
+            })
+            """);
+    protected final HttpServerRequest request;
+    protected final Context context;
+    protected Buffer buffered;
+    protected Promise<Buffer> pending;
+    protected boolean ended;
+    protected Throwable failure;
+
+    public BodyStream(HttpServerRequest request, Context context) {
+        this.request = request;
+        this.context = context;
+        request.pause();
+        request.handler(this::onChunk);
+        request.endHandler(v -> onEnd());
+        request.exceptionHandler(this::onFailure);
+    }
+
+    /**
+     * @return an async iterable of this stream in the current polyglot context.
+     */
+    public Value asAsyncIterable() {
+        return org.graalvm.polyglot.Context.getCurrent().eval(ASYNC_ITERABLE).execute(this);
+    }
+
+    /**
+     * @return the next chunk, or {@code null} once the body is fully read.
+     */
+    @ExportToScript
+    public Future<Buffer> read() {
+        Promise<Buffer> promise;
+        synchronized (this) {
+            if (pending != null) {
+                return Future.failedFuture(new IllegalStateException("A read is already in progress"));
+            }
+            if (buffered != null) {
+                var chunk = buffered;
+                buffered = null;
+                return Future.succeededFuture(chunk);
+            }
+            if (failure != null) return Future.failedFuture(failure);
+            if (ended) return Future.succeededFuture();
+            promise = pending = Promise.promise();
+        }
+        request.fetch(1);
+        return promise.future();
+    }
+
+    /**
+     * Discards the rest of the body.
+     */
+    @ExportToScript
+    public void cancel() {
+        synchronized (this) {
+            if (ended || failure != null) return;
+            ended = true;
+            buffered = null;
+        }
+        request.handler(null);
+        request.resume();
+    }
+
+    protected void onChunk(Buffer chunk) {
+        Promise<Buffer> promise;
+        synchronized (this) {
+            if (ended) return;
+            promise = pending;
+            pending = null;
+            if (promise == null) {
+                // fetched by someone else, keep it for the next read.
+                buffered = buffered == null ? chunk : buffered.appendBuffer(chunk);
+                return;
+            }
+        }
+        complete(promise, chunk, null);
+    }
+
+    protected void onEnd() {
+        Promise<Buffer> promise;
+        synchronized (this) {
+            ended = true;
+            promise = pending;
+            pending = null;
+        }
+        if (promise != null) complete(promise, null, null);
+    }
+
+    protected void onFailure(Throwable throwable) {
+        Promise<Buffer> promise;
+        synchronized (this) {
+            failure = throwable;
+            promise = pending;
+            pending = null;
+        }
+        if (promise != null) complete(promise, null, throwable);
+    }
+
+    protected void complete(Promise<Buffer> promise, Buffer chunk, Throwable throwable) {
+        Future<Buffer> result = throwable == null ? Future.succeededFuture(chunk) : Future.failedFuture(throwable);
+        if (context == null || Vertx.currentContext() == context) {
+            promise.handle(result);
+        } else {
+            context.runOnContext(v -> promise.handle(result));
+        }
+    }
+}
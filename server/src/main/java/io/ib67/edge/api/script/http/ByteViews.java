@@ -0,0 +1,102 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge.api.script.http;
+
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.internal.buffer.BufferInternal;
+import org.graalvm.polyglot.Value;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bridges Vert.x {@link Buffer}s and JS binary data. A {@link ByteBuffer} shared with the guest is seen as
+ * buffer elements, which GraalJS accepts as the backing store of {@code ArrayBuffer} and typed arrays,
+ * so bytes can be read in bulk instead of a polyglot call per {@link Buffer#getByte(int)}.
+ */
+public final class ByteViews {
+    /**
+     * Upper bound of {@link #allocate(int)}, allocations are made by guests and not covered by their heap limit.
+     */
+    public static final int MAX_ALLOCATION_BYTES = 4 * 1024 * 1024;
+
+    private ByteViews() {
+    }
+
+    /**
+     * @return a read-only view sharing the memory of the buffer, to be wrapped by {@code new Uint8Array(view)} in JS.
+     */
+    public static ByteBuffer view(Buffer buffer) {
+        return ((BufferInternal) buffer).getByteBuf().nioBuffer().asReadOnlyBuffer();
+    }
+
+    /**
+     * Vert.x 5 has no public way to create a {@link Buffer} without copying, {@code Buffer.buffer(ByteBuf)} has
+     * been moved to {@link BufferInternal}, so this is the only place relying on it.
+     *
+     * @return a buffer sharing the memory of {@code buffer} between its position and limit.
+     */
+    public static Buffer wrap(ByteBuffer buffer) {
+        return BufferInternal.buffer(Unpooled.wrappedBuffer(buffer.duplicate()));
+    }
+
+    /**
+     * Allocations are kept on the JVM heap on purpose, so that they are bounded by the heap and reclaimed by
+     * the collector like any guest garbage, instead of piling up direct memory until their cleaners run.
+     * They are copied once when written to a socket, as much as a {@code byte[]} would be.
+     *
+     * @return a writable buffer on the JVM heap, at most {@link #MAX_ALLOCATION_BYTES}.
+     */
+    public static ByteBuffer allocate(int size) {
+        if (size < 0 || size > MAX_ALLOCATION_BYTES) {
+            throw new IllegalArgumentException("Size must be between 0 and " + MAX_ALLOCATION_BYTES + ", found " + size);
+        }
+        return ByteBuffer.allocate(size);
+    }
+
+    /**
+     * @param data a {@link ByteBuffer} from the host, an {@code ArrayBuffer} or a typed array.
+     * @return a buffer sharing the memory if it comes from the host, or a copy of the guest bytes otherwise.
+     */
+    public static Buffer from(Value data) {
+        if (data.isHostObject() && data.asHostObject() instanceof ByteBuffer buffer) {
+            return wrap(buffer);
+        }
+        if (data.hasBufferElements()) {
+            return copy(data, 0, data.getBufferSize());
+        }
+        // typed arrays and DataViews are views of an ArrayBuffer.
+        if (data.hasMember("buffer") && data.hasMember("byteOffset") && data.hasMember("byteLength")) {
+            var backing = data.getMember("buffer");
+            var offset = data.getMember("byteOffset").asLong();
+            var length = data.getMember("byteLength").asLong();
+            if (backing.isHostObject() && backing.asHostObject() instanceof ByteBuffer buffer) {
+                return wrap(buffer.slice((int) offset, (int) length));
+            }
+            if (backing.hasBufferElements()) return copy(backing, offset, length);
+        }
+        throw new IllegalArgumentException("Expected an ArrayBuffer, a typed array or a ByteBuffer, found " + data);
+    }
+
+    private static Buffer copy(Value data, long offset, long length) {
+        var bytes = new byte[Math.toIntExact(length)];
+        data.readBuffer(offset, bytes, 0, bytes.length);
+        return Buffer.buffer(bytes);
+    }
+}
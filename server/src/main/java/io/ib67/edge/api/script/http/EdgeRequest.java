@@ -20,11 +20,16 @@ package io.ib67.edge.api.script.http;
 import io.ib67.edge.api.script.ExportToScript;
 import io.ib67.edge.api.script.MixinHelper;
 import io.ib67.edge.mixin.Mixin;
+import io.ib67.edge.worker.ScriptWorker;
 import io.vertx.core.Future;
 import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServerRequest;
+import org.graalvm.polyglot.Value;
+
+import java.nio.ByteBuffer;
 
 @Mixin(HttpServerRequest.class)
 public interface EdgeRequest extends MixinHelper<HttpServerRequest> {
@@ -33,6 +38,27 @@ public interface EdgeRequest extends MixinHelper<HttpServerRequest> {
         return $().body();
     }
 
+    /**
+     * Reads the body as a read-only {@code ByteBuffer} sharing the memory of the received buffer,
+     * which is consumed by {@code new Uint8Array(await request.bytes())} without copying.
+     */
+    @ExportToScript
+    default Future<ByteBuffer> bytes() {
+        return $().body().map(ByteViews::view);
+    }
+
+    /**
+     * Streams the body as an async iterable of {@link Buffer} chunks, to be consumed by {@code for await}.
+     * The request is paused between reads, hence it cannot be mixed with {@link #body()}.
+     */
+    @ExportToScript
+    default Value stream() {
+        var worker = ScriptWorker.current();
+        // the stream fetches chunks itself, the worker must not resume the request.
+        if (worker != null) worker.claimBody($());
+        return new BodyStream($(), Vertx.currentContext()).asAsyncIterable();
+    }
+
     @ExportToScript
     default String absoluteURI(){
         return $().absoluteURI();
@@ -55,6 +81,6 @@ public interface EdgeRequest extends MixinHelper<HttpServerRequest> {
 
     @ExportToScript
     default EdgeResponse response() {
-        return (EdgeResponse) $().response();
+        return new ScriptResponse($().response());
     }
 }
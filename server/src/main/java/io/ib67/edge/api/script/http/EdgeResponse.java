@@ -19,13 +19,24 @@ package io.ib67.edge.api.script.http;
 
 import io.ib67.edge.api.script.ExportToScript;
 import io.ib67.edge.api.script.MixinHelper;
-import io.ib67.edge.mixin.Mixin;
+import io.ib67.edge.cache.ResponseRecorder;
+import io.ib67.edge.worker.ScriptWorker;
 import io.vertx.core.Future;
 import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.MimeMapping;
+import io.vertx.core.streams.ReadStream;
+import org.graalvm.polyglot.Value;
 
-@Mixin(HttpServerResponse.class)
+import java.nio.ByteBuffer;
+
+/**
+ * What scripts can do with a response, reached by {@link EdgeRequest#response()}. Chunks written through it are
+ * reported to the {@link ResponseRecorder} of the worker, so the response can be cached and shared.
+ */
 @ExportToScript
 public interface EdgeResponse extends MixinHelper<HttpServerResponse> {
     default EdgeResponse setStatusCode(int statusCode) {
@@ -35,41 +46,143 @@ public interface EdgeResponse extends MixinHelper<HttpServerResponse> {
 
     @ExportToScript
     default Future<Void> write(String chunk) {
+        ResponseRecorder.current().write($(), chunk);
         return $().write(chunk);
     }
 
     @ExportToScript
     default Future<Void> write(Buffer buffer) {
+        ResponseRecorder.current().write($(), buffer);
         return $().write(buffer);
     }
 
     @ExportToScript
     default Future<Void> send(Buffer buffer) {
+        ResponseRecorder.current().end($(), buffer);
         return $().send(buffer);
     }
 
     @ExportToScript
     default Future<Void> send(String chunk) {
+        ResponseRecorder.current().end($(), chunk);
         return $().send(chunk);
     }
 
+    /**
+     * Writes an {@code ArrayBuffer}, a typed array or a {@code ByteBuffer} from the host.
+     * Buffers from {@link #allocate(int)} and {@link EdgeRequest#bytes()} are written without copying,
+     * others are copied once in bulk.
+     */
+    @ExportToScript
+    default Future<Void> writeBytes(Value data) {
+        var buffer = ByteViews.from(data);
+        ResponseRecorder.current().write($(), buffer);
+        return $().write(buffer);
+    }
+
+    /**
+     * @see #writeBytes(Value)
+     */
+    @ExportToScript
+    default Future<Void> endBytes(Value data) {
+        var buffer = ByteViews.from(data);
+        ResponseRecorder.current().end($(), buffer);
+        return $().end(buffer);
+    }
+
+    /**
+     * Allocates memory to be filled through {@code new Uint8Array(buffer)} and sent by {@link #writeBytes(Value)},
+     * at most {@link ByteViews#MAX_ALLOCATION_BYTES} per call.
+     */
+    @ExportToScript
+    default ByteBuffer allocate(int size) {
+        return ByteViews.allocate(size);
+    }
+
     @ExportToScript
     default EdgeResponse end(String chunk) {
+        ResponseRecorder.current().end($(), chunk);
         $().end(chunk);
         return this;
     }
 
     @ExportToScript
     default EdgeResponse end() {
+        ResponseRecorder.current().end($(), (Buffer) null);
         $().end();
         return this;
     }
 
     @ExportToScript
     default Future<Void> end(Buffer buffer) {
+        ResponseRecorder.current().end($(), buffer);
         return $().end(buffer);
     }
 
+    /**
+     * Sends a file of the bundle and ends the response. Relative paths can be resolved against the module,
+     * e.g. {@code sendBundleFile(new URL("./logo.png", import.meta.url).href)}, files outside of the bundle are
+     * never found. It's not named {@code sendFile}, which Vert.x uses for sending any file of the host.
+     * Files are located off the event loop, uncompressed entries are transferred by the kernel and never copied
+     * into the JVM, compressed ones are inflated once and kept in memory.
+     */
+    @ExportToScript
+    default Future<Void> sendBundleFile(String path) {
+        var worker = ScriptWorker.current();
+        if (worker == null) return Future.failedFuture(new IllegalStateException("Files can only be sent by scripts"));
+        var response = $();
+        ResponseRecorder.current().abort(response);
+        // opening a bundle maps and indexes the archive, which shouldn't block the event loop.
+        return Vertx.currentContext()
+                .executeBlocking(() -> worker.getContext().locateFile(path), false)
+                .compose(region -> {
+                    if (!response.headers().contains(HttpHeaders.CONTENT_TYPE)) {
+                        var type = MimeMapping.mimeTypeForFilename(region.name());
+                        if (type != null) response.putHeader(HttpHeaders.CONTENT_TYPE, type);
+                    }
+                    if (!region.inMemory()) {
+                        return response.sendFile(region.file().toString(), region.offset(), region.length());
+                    }
+                    // shared with the archive, which keeps inflated entries for later requests.
+                    return response.end(ByteViews.wrap(region.content()));
+                });
+    }
+
+    /**
+     * Pipes a stream, like a file or the body of an upstream response, into this response and ends it.
+     * The source is paused whenever the client can't keep up.
+     */
+    @ExportToScript
+    default Future<Void> pipeFrom(ReadStream<Buffer> stream) {
+        ResponseRecorder.current().abort($());
+        return stream.pipeTo($());
+    }
+
+    /**
+     * Calls back once the response is ended. The worker keeps its own end handler on the response,
+     * the callback is chained after it and runs on the context of the script.
+     */
+    @ExportToScript
+    default EdgeResponse endHandler(Value callback) {
+        var worker = ScriptWorker.current();
+        if (worker == null) throw new IllegalStateException("Handlers can only be set by scripts");
+        var context = Vertx.currentContext();
+        worker.chainEndHandler($(), v -> context.runOnContext(it -> callback.executeVoid()));
+        return this;
+    }
+
+    /**
+     * Calls back if the connection is closed, see {@link #endHandler(Value)}.
+     */
+    @ExportToScript
+    default EdgeResponse closeHandler(Value callback) {
+        var worker = ScriptWorker.current();
+        if (worker == null) throw new IllegalStateException("Handlers can only be set by scripts");
+        var context = Vertx.currentContext();
+        worker.chainCloseHandler($(), v -> context.runOnContext(it -> callback.executeVoid()));
+        return this;
+    }
+
     @ExportToScript
     default EdgeResponse putHeader(String name, String value) {
         $().putHeader(name, value);
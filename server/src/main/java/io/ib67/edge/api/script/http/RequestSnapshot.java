@@ -0,0 +1,115 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge.api.script.http;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpServerRequest;
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyArray;
+import org.graalvm.polyglot.proxy.ProxyObject;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A read-only copy of a request, materialized once before the handler runs. Reading it from JS doesn't
+ * reflect on host objects like {@link MultiMap} does, at the cost of copying every header up front.
+ * <p>
+ * Members are {@code method}, {@code uri}, {@code path}, {@code query}, {@code host}, {@code scheme},
+ * {@code headers} and {@code params}. Header names are lower-cased and repeated headers are joined by
+ * {@code ", "}, repeated query parameters keep their first value.
+ */
+public final class RequestSnapshot implements ProxyObject {
+    private final Map<String, Object> members;
+
+    private RequestSnapshot(Map<String, Object> members) {
+        this.members = members;
+    }
+
+    public static RequestSnapshot of(HttpServerRequest request) {
+        return of(request.method().name(), request.uri(), request.path(), request.query(),
+                request.authority() == null ? null : request.authority().toString(), request.scheme(),
+                request.headers(), request.params());
+    }
+
+    public static RequestSnapshot of(
+            String method, String uri, String path, String query, String host, String scheme,
+            MultiMap headers, MultiMap params
+    ) {
+        var members = HashMap.<String, Object>newHashMap(8);
+        members.put("method", method);
+        members.put("uri", uri);
+        members.put("path", path);
+        members.put("query", query);
+        members.put("host", host);
+        members.put("scheme", scheme);
+        members.put("headers", new RequestSnapshot(copyHeaders(headers)));
+        members.put("params", new RequestSnapshot(copyParams(params)));
+        return new RequestSnapshot(members);
+    }
+
+    private static Map<String, Object> copyHeaders(MultiMap headers) {
+        var copy = HashMap.<String, Object>newHashMap(headers.size());
+        for (var entry : headers) {
+            copy.merge(entry.getKey().toLowerCase(Locale.ROOT), entry.getValue(), (a, b) -> a + ", " + b);
+        }
+        return copy;
+    }
+
+    private static Map<String, Object> copyParams(MultiMap params) {
+        var copy = HashMap.<String, Object>newHashMap(params.size());
+        for (var entry : params) {
+            copy.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+        return copy;
+    }
+
+    /**
+     * For host code, e.g. {@code snapshot.get("headers")}.
+     */
+    public Object get(String key) {
+        return members.get(key);
+    }
+
+    @Override
+    public Object getMember(String key) {
+        return members.get(key);
+    }
+
+    @Override
+    public Object getMemberKeys() {
+        return ProxyArray.fromArray(members.keySet().toArray());
+    }
+
+    @Override
+    public boolean hasMember(String key) {
+        return members.containsKey(key);
+    }
+
+    @Override
+    public void putMember(String key, Value value) {
+        throw new UnsupportedOperationException("Request snapshots are read-only");
+    }
+
+    @Override
+    public boolean removeMember(String key) {
+        throw new UnsupportedOperationException("Request snapshots are read-only");
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package io.ib67.edge.api.script.http;
+
+import io.vertx.core.http.HttpServerResponse;
+
+/**
+ * The response as seen by scripts. Vert.x implements {@code write}, {@code send} and {@code end} itself, which
+ * would shadow the defaults of {@link EdgeResponse} if the Vert.x response was handed out, so scripts only get
+ * this wrapper and every chunk they write passes the recorder. It also keeps methods of the Vert.x response, like
+ * {@code sendFile} reading any file of the host, out of reach of scripts.
+ */
+public final class ScriptResponse implements EdgeResponse {
+    private final HttpServerResponse response;
+
+    public ScriptResponse(HttpServerResponse response) {
+        this.response = response;
+    }
+
+    @Override
+    public HttpServerResponse $() {
+        return response;
+    }
+}
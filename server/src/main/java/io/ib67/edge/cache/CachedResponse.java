@@ -0,0 +1,51 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge.cache;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+
+import java.util.Map;
+
+/**
+ * A stored response, it's never modified after being put into the cache.
+ */
+public record CachedResponse(int status, MultiMap headers, Buffer body, long storedAtMillis, long expiresAtMillis) {
+    public boolean isFresh(long nowMillis) {
+        return nowMillis < expiresAtMillis;
+    }
+
+    /**
+     * @return value of the {@code Age} header.
+     */
+    public long ageSeconds(long nowMillis) {
+        return Math.max(0, nowMillis - storedAtMillis) / 1000;
+    }
+
+    /**
+     * Approximated memory used by the entry, for bounding the cache by size.
+     */
+    public int weight() {
+        var weight = 64 + body.length();
+        for (Map.Entry<String, String> header : headers) {
+            weight += header.getKey().length() + header.getValue().length();
+        }
+        return weight;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge.cache;
+
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collapses concurrent identical GET and HEAD requests of a deployment into one script invocation. The first
+ * request leads, identical requests arriving before its response ends wait and receive a copy of that response.
+ * Requests are identical if they share the method, host, URI and the request headers selected by the deployment.
+ * <p>
+ * Waiting requests run the script by themselves if the response of the leader can't be copied, e.g. it's sent
+ * from a file, written by the host on errors, personalised, or doesn't end in time.
+ * Requests carrying credentials are only coalesced if the credential headers are selected.
+ */
+public class RequestCoalescer {
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+    protected static final long MAX_BODY_BYTES = 8 * 1024 * 1024;
+    protected static final List<String> CREDENTIAL_HEADERS = List.of("authorization", "cookie");
+    protected final Vertx vertx;
+    protected final ResponseRecorder recorder;
+    protected final long timeoutMillis;
+    protected final Map<String, Coalescing> deployments = new ConcurrentHashMap<>();
+    protected final Map<Key, Flight> flights = new ConcurrentHashMap<>();
+
+    /**
+     * @param timeout how long identical requests wait for the leader.
+     */
+    public RequestCoalescer(Vertx vertx, ResponseRecorder recorder, Duration timeout) {
+        this.vertx = vertx;
+        this.recorder = recorder;
+        this.timeoutMillis = Math.max(1, timeout.toMillis());
+    }
+
+    /**
+     * @param headers request headers telling requests apart besides the method, host and URI.
+     */
+    public void enable(String deployment, List<String> headers) {
+        var names = headers.stream()
+                .map(it -> it.toLowerCase(Locale.ROOT))
+                .distinct()
+                .sorted()
+                .toList();
+        deployments.put(deployment, new Coalescing(names));
+    }
+
+    public void disable(String deployment) {
+        deployments.remove(deployment);
+    }
+
+    /**
+     * Hands the request to {@code handler}, unless an identical request is in flight, whose response is copied then.
+     */
+    public void dispatch(String deployment, HttpServerRequest request, Handler<HttpServerRequest> handler) {
+        var coalescing = deployment == null ? null : deployments.get(deployment);
+        var method = request.method();
+        if (coalescing == null || method != HttpMethod.GET && method != HttpMethod.HEAD
+                || !coalescing.isShareable(request)) {
+            handler.handle(request);
+            return;
+        }
+        var key = Key.of(deployment, request, coalescing.headers);
+        while (true) {
+            var flight = flights.get(key);
+            if (flight == null) {
+                var created = new Flight(key, coalescing);
+                if (flights.putIfAbsent(key, created) == null) {
+                    lead(created, request, handler);
+                    return;
+                }
+            } else if (flight.join(request, handler)) {
+                coalescing.followers.increment();
+                return;
+            }
+            // lost the race to a new or a finished flight, try again.
+        }
+    }
+
+    protected void lead(Flight flight, HttpServerRequest request, Handler<HttpServerRequest> handler) {
+        flight.coalescing.leaders.increment();
+        var response = request.response();
+        recorder.attach(response, MAX_BODY_BYTES, flight);
+        // called after the response is recorded, or when it's written by the host which can't be copied.
+        response.bodyEndHandler(v -> flight.fallback());
+        // the close handler is taken by the worker, a reset or a close before the end is reported here as well.
+        response.exceptionHandler(t -> flight.fallback());
+        flight.timer = vertx.setTimer(timeoutMillis, id -> flight.fallback());
+        handler.handle(request);
+    }
+
+    /**
+     * @return true if the response is meant for the leader only.
+     */
+    protected static boolean isPersonalised(MultiMap headers) {
+        if (headers.contains(HttpHeaders.SET_COOKIE)) return true;
+        var directives = ResponseCache.parseCacheControl(headers.getAll(HttpHeaders.CACHE_CONTROL));
+        return directives.containsKey("private") || directives.containsKey("no-store");
+    }
+
+    public Map<String, Stats> getStats() {
+        var stats = new HashMap<String, Stats>();
+        deployments.forEach((name, coalescing) -> stats.put(name, coalescing.stats()));
+        return stats;
+    }
+
+    public record Stats(long leaders, long followers, long fallbacks, double ratio) {
+    }
+
+    protected static final class Coalescing {
+        protected final List<String> headers;
+        protected final LongAdder leaders = new LongAdder();
+        protected final LongAdder followers = new LongAdder();
+        protected final LongAdder fallbacks = new LongAdder();
+
+        protected Coalescing(List<String> headers) {
+            this.headers = headers;
+        }
+
+        /**
+         * @return false if the request carries credentials which aren't a part of the key.
+         */
+        protected boolean isShareable(HttpServerRequest request) {
+            var headers = request.headers();
+            for (var credential : CREDENTIAL_HEADERS) {
+                if (headers.contains(credential) && !this.headers.contains(credential)) return false;
+            }
+            return true;
+        }
+
+        /**
+         * The ratio is the share of requests answered without running the script.
+         */
+        protected Stats stats() {
+            var leaders = this.leaders.sum();
+            var followers = this.followers.sum();
+            var fallbacks = this.fallbacks.sum();
+            var total = leaders + followers;
+            return new Stats(leaders, followers, fallbacks, total == 0 ? 0 : (double) (followers - fallbacks) / total);
+        }
+    }
+
+    protected record Key(String deployment, HttpMethod method, String host, String uri, List<String> headers) {
+        static Key of(String deployment, HttpServerRequest request, List<String> names) {
+            var headers = request.headers();
+            var host = headers.get(HttpHeaders.HOST);
+            List<String> values = List.of();
+            if (!names.isEmpty()) {
+                values = new ArrayList<>(names.size());
+                for (var name : names) values.add(String.join(",", headers.getAll(name)));
+            }
+            return new Key(deployment, request.method(), host == null ? "" : host.toLowerCase(Locale.ROOT),
+                    request.uri(), values);
+        }
+    }
+
+    protected record Waiter(HttpServerRequest request, Handler<HttpServerRequest> handler) {
+    }
+
+    protected final class Flight implements ResponseRecorder.Listener {
+        protected final Key key;
+        protected final Coalescing coalescing;
+        protected volatile long timer = -1;
+        // null once the flight is finished
+        protected List<Waiter> waiters = new ArrayList<>();
+
+        protected Flight(Key key, Coalescing coalescing) {
+            this.key = key;
+            this.coalescing = coalescing;
+        }
+
+        protected synchronized boolean join(HttpServerRequest request, Handler<HttpServerRequest> handler) {
+            if (waiters == null) return false;
+            // the body is read by the script if the request runs it after all.
+            request.pause();
+            waiters.add(new Waiter(request, handler));
+            return true;
+        }
+
+        /**
+         * @return requests waited for this flight, or null if it's finished already.
+         */
+        protected List<Waiter> finish() {
+            // new requests start another flight from now on, requests holding this one still can join until it's closed.
+            flights.remove(key, this);
+            List<Waiter> finished;
+            synchronized (this) {
+                finished = waiters;
+                waiters = null;
+            }
+            if (finished != null && timer != -1) vertx.cancelTimer(timer);
+            return finished;
+        }
+
+        @Override
+        public void onRecorded(HttpServerResponse response, Buffer body) {
+            if (isPersonalised(response.headers())) {
+                fallback();
+                return;
+            }
+            var waiters = finish();
+            if (waiters == null || waiters.isEmpty()) return;
+            var status = response.getStatusCode();
+            MultiMap headers = ResponseCache.endToEndHeaders(response.headers());
+            for (var waiter : waiters) {
+                var request = waiter.request();
+                request.resume();
+                var copy = request.response();
+                copy.setStatusCode(status);
+                copy.headers().setAll(headers);
+                if (request.method() == HttpMethod.HEAD) {
+                    copy.end();
+                } else {
+                    copy.end(body);
+                }
+            }
+        }
+
+        @Override
+        public void onAborted() {
+            fallback();
+        }
+
+        protected void fallback() {
+            var waiters = finish();
+            if (waiters == null || waiters.isEmpty()) return;
+            coalescing.fallbacks.add(waiters.size());
+            for (var waiter : waiters) {
+                waiter.request().resume();
+                waiter.handler().handle(waiter.request());
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import lombok.extern.log4j.Log4j2;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-memory cache of responses in front of workers. Hits are served on the listener's event loop
+ * without entering any script context.
+ * <p>
+ * Only responses to GET requests allowing shared caching are stored, that is a positive {@code s-maxage},
+ * {@code max-age} or {@code Expires}, without {@code private}, {@code no-store}, {@code no-cache}
+ * or {@code Set-Cookie}. Entries are keyed by deployment, host, URI and the request headers named by
+ * {@code Vary}, weighted by their size and evicted in LRU order.
+ * <p>
+ * Deployments opt in with {@link #enable(String)}, others are never looked up or stored.
+ */
+@Log4j2
+public class ResponseCache {
+    protected static final Set<Integer> CACHEABLE_STATUS = Set.of(200, 203, 204, 300, 301, 308, 404, 405, 410, 414, 501);
+    protected static final Set<String> HOP_BY_HOP_HEADERS = Set.of(
+            "connection", "keep-alive", "transfer-encoding", "upgrade", "proxy-connection", "te", "trailer");
+    protected static final int MAX_RESOURCES = 65536;
+    protected final Cache<Key, CachedResponse> responses;
+    // header names of Vary per resource, needed to build the key before the response is known.
+    protected final Cache<Resource, List<String>> varyHeaders;
+    protected final long maxEntryBytes;
+    protected final LongAdder hits = new LongAdder();
+    protected final LongAdder misses = new LongAdder();
+    protected final LongAdder stores = new LongAdder();
+    protected final LongAdder evictions = new LongAdder();
+    protected final LongAdder weight = new LongAdder();
+    protected final Set<String> deployments = ConcurrentHashMap.newKeySet();
+    protected final ResponseRecorder recorder;
+
+    /**
+     * @param maxBytes approximated upper bound of memory used by cached responses.
+     */
+    public ResponseCache(long maxBytes, ResponseRecorder recorder) {
+        if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes must be positive");
+        this.recorder = recorder;
+        // guava splits the weight between segments, larger entries would be evicted right after they are put.
+        this.maxEntryBytes = Math.max(maxBytes / 16, 1);
+        this.responses = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .<Key, CachedResponse>weigher((key, response) -> response.weight())
+                .<Key, CachedResponse>removalListener(notification -> {
+                    weight.add(-notification.getValue().weight());
+                    if (notification.getCause() == RemovalCause.SIZE) evictions.increment();
+                })
+                .build();
+        this.varyHeaders = CacheBuilder.newBuilder()
+                .maximumSize(MAX_RESOURCES)
+                .build();
+    }
+
+    public void enable(String deployment) {
+        deployments.add(deployment);
+    }
+
+    /**
+     * Stops caching responses of a deployment and drops those already cached.
+     */
+    public void disable(String deployment) {
+        if (deployments.remove(deployment)) purge(deployment);
+    }
+
+    /**
+     * @return a fresh response, or null if the request has to be handled by the deployment.
+     */
+    public CachedResponse lookup(String deployment, HttpServerRequest request) {
+        if (!deployments.contains(deployment) || !isCacheable(request)) return null;
+        var resource = Resource.of(deployment, request);
+        var vary = varyHeaders.getIfPresent(resource);
+        var cached = vary == null ? null : responses.getIfPresent(new Key(resource, varyValues(vary, request.headers())));
+        if (cached == null) {
+            misses.increment();
+            return null;
+        }
+        if (!cached.isFresh(System.currentTimeMillis())) {
+            responses.asMap().remove(new Key(resource, varyValues(vary, request.headers())), cached);
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return cached;
+    }
+
+    public void serve(CachedResponse cached, HttpServerRequest request) {
+        var response = request.response();
+        response.setStatusCode(cached.status());
+        response.headers().setAll(cached.headers());
+        response.putHeader("Age", String.valueOf(cached.ageSeconds(System.currentTimeMillis())));
+        if (request.method() == HttpMethod.HEAD) {
+            response.end();
+        } else {
+            response.end(cached.body());
+        }
+    }
+
+    /**
+     * Records the response of a request which missed, it's stored after the script ends the response.
+     */
+    public void record(String deployment, HttpServerRequest request) {
+        if (!deployments.contains(deployment) || request.method() != HttpMethod.GET || !isCacheable(request)) return;
+        recorder.attach(request.response(), maxEntryBytes,
+                (response, body) -> store(deployment, request, response, body));
+    }
+
+    protected void store(String deployment, HttpServerRequest request, HttpServerResponse response, Buffer body) {
+        if (!CACHEABLE_STATUS.contains(response.getStatusCode())) return;
+        var headers = response.headers();
+        if (headers.contains(HttpHeaders.SET_COOKIE)) return;
+        var now = System.currentTimeMillis();
+        var freshness = freshnessMillis(headers, request.headers().contains(HttpHeaders.AUTHORIZATION), now);
+        if (freshness <= 0) return;
+        var vary = parseVary(headers.getAll(HttpHeaders.VARY));
+        if (vary == null) return;
+        var copy = endToEndHeaders(headers);
+        var resource = Resource.of(deployment, request);
+        varyHeaders.put(resource, vary);
+        var cached = new CachedResponse(response.getStatusCode(), copy, body, now, now + freshness);
+        weight.add(cached.weight());
+        responses.put(new Key(resource, varyValues(vary, request.headers())), cached);
+        stores.increment();
+    }
+
+    /**
+     * Drops every response of a deployment, e.g. after it's redeployed.
+     *
+     * @return count of dropped responses.
+     */
+    public int purge(String deployment) {
+        var purged = 0;
+        for (var iterator = responses.asMap().keySet().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().resource().deployment().equals(deployment)) {
+                iterator.remove();
+                purged++;
+            }
+        }
+        varyHeaders.asMap().keySet().removeIf(it -> it.deployment().equals(deployment));
+        if (purged > 0) log.info("Purged {} cached responses of {}", purged, deployment);
+        return purged;
+    }
+
+    public Stats getStats() {
+        return new Stats(responses.size(), weight.sum(), hits.sum(), misses.sum(), stores.sum(), evictions.sum());
+    }
+
+    /**
+     * Requests asking for an end-to-end reload and methods other than GET and HEAD always reach the deployment.
+     */
+    protected static boolean isCacheable(HttpServerRequest request) {
+        var method = request.method();
+        if (method != HttpMethod.GET && method != HttpMethod.HEAD) return false;
+        var headers = request.headers();
+        if (headers.contains("Pragma", "no-cache", true)) return false;
+        var directives = parseCacheControl(headers.getAll(HttpHeaders.CACHE_CONTROL));
+        return !directives.containsKey("no-cache") && !directives.containsKey("no-store");
+    }
+
+    /**
+     * @param authorized whether the request carries credentials, which are only shared if the response says so.
+     * @return how long the response stays fresh, not positive if it must not be stored.
+     */
+    static long freshnessMillis(MultiMap headers, boolean authorized, long nowMillis) {
+        var directives = parseCacheControl(headers.getAll(HttpHeaders.CACHE_CONTROL));
+        if (directives.containsKey("no-store") || directives.containsKey("private") || directives.containsKey("no-cache")) {
+            return -1;
+        }
+        if (authorized && !directives.containsKey("public") && !directives.containsKey("s-maxage")
+                && !directives.containsKey("must-revalidate")) {
+            return -1;
+        }
+        var seconds = parseSeconds(directives.get("s-maxage"));
+        if (seconds < 0) seconds = parseSeconds(directives.get("max-age"));
+        if (seconds >= 0) return seconds * 1000;
+        var expires = parseDate(headers.get(HttpHeaders.EXPIRES));
+        if (expires == Long.MIN_VALUE) return -1;
+        var date = parseDate(headers.get(HttpHeaders.DATE));
+        return expires - (date == Long.MIN_VALUE ? nowMillis : date);
+    }
+
+    /**
+     * @return a copy of headers which can be replayed on another connection.
+     */
+    static MultiMap endToEndHeaders(MultiMap headers) {
+        var copy = MultiMap.caseInsensitiveMultiMap();
+        for (Map.Entry<String, String> header : headers) {
+            if (!HOP_BY_HOP_HEADERS.contains(header.getKey().toLowerCase(Locale.ROOT))) {
+                copy.add(header.getKey(), header.getValue());
+            }
+        }
+        return copy;
+    }
+
+    static Map<String, String> parseCacheControl(List<String> values) {
+        if (values.isEmpty()) return Map.of();
+        var directives = new HashMap<String, String>();
+        for (var value : values) {
+            for (var directive : value.split(",")) {
+                directive = directive.trim();
+                if (directive.isEmpty()) continue;
+                var equals = directive.indexOf('=');
+                var name = (equals == -1 ? directive : directive.substring(0, equals)).trim().toLowerCase(Locale.ROOT);
+                var argument = equals == -1 ? "" : directive.substring(equals + 1).trim();
+                if (argument.length() >= 2 && argument.startsWith("\"") && argument.endsWith("\"")) {
+                    argument = argument.substring(1, argument.length() - 1);
+                }
+                directives.putIfAbsent(name, argument);
+            }
+        }
+        return directives;
+    }
+
+    /**
+     * @return lower-cased header names, or null for {@code Vary: *} which can't be cached.
+     */
+    static List<String> parseVary(List<String> values) {
+        if (values.isEmpty()) return List.of();
+        var names = new TreeSet<String>();
+        for (var value : values) {
+            for (var name : value.split(",")) {
+                name = name.trim().toLowerCase(Locale.ROOT);
+                if (name.equals("*")) return null;
+                if (!name.isEmpty()) names.add(name);
+            }
+        }
+        return List.copyOf(names);
+    }
+
+    private static List<String> varyValues(List<String> names, MultiMap headers) {
+        if (names.isEmpty()) return List.of();
+        var values = new ArrayList<String>(names.size());
+        for (var name : names) {
+            values.add(String.join(",", headers.getAll(name)));
+        }
+        return values;
+    }
+
+    private static long parseSeconds(String value) {
+        if (value == null) return -1;
+        try {
+            return Math.max(0, Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long parseDate(String value) {
+        if (value == null) return Long.MIN_VALUE;
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            // invalid dates mean already expired.
+            return 0;
+        }
+    }
+
+    protected record Resource(String deployment, String host, String uri) {
+        static Resource of(String deployment, HttpServerRequest request) {
+            var host = request.headers().get(HttpHeaders.HOST);
+            return new Resource(deployment, host == null ? "" : host.toLowerCase(Locale.ROOT), request.uri());
+        }
+    }
+
+    protected record Key(Resource resource, List<String> vary) {
+    }
+
+    public record Stats(long entries, long bytes, long hits, long misses, long stores, long evictions) {
+    }
+}
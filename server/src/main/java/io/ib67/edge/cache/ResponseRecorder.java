@@ -0,0 +1,173 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package io.ib67.edge.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects what scripts write into responses, so they can be reused once the scripts end them. Scripts write through
+ * {@link io.ib67.edge.api.script.http.ScriptResponse}, which wraps the Vert.x response and reports every chunk to
+ * the recorder installed on the worker context. Responses written by the host, e.g. error pages, are never recorded.
+ */
+public class ResponseRecorder {
+    // never attached to, so it ignores everything written outside of workers.
+    private static final ResponseRecorder NOOP = new ResponseRecorder();
+    // identity keys, responses abandoned without ending are dropped with them.
+    protected final Cache<HttpServerResponse, Recording> active = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build();
+    protected volatile boolean enabled;
+
+    /**
+     * @return the recorder installed on the current context, or one recording nothing outside of workers.
+     */
+    public static ResponseRecorder current() {
+        var context = Vertx.currentContext();
+        ResponseRecorder recorder = context == null ? null : context.get(ResponseRecorder.class);
+        return recorder == null ? NOOP : recorder;
+    }
+
+    /**
+     * Makes the recorder reachable by scripts running on the context.
+     */
+    public void install(Context context) {
+        context.put(ResponseRecorder.class, this);
+    }
+
+    /**
+     * Starts recording a response, a response can be recorded for multiple listeners.
+     *
+     * @param maxBytes the recording is aborted if the body grows larger.
+     */
+    public void attach(HttpServerResponse response, long maxBytes, Listener listener) {
+        enabled = true;
+        var recording = active.asMap().computeIfAbsent(response, it -> new Recording(maxBytes));
+        synchronized (recording) {
+            recording.maxBytes = Math.min(recording.maxBytes, maxBytes);
+            recording.listeners.add(listener);
+        }
+    }
+
+    private Recording find(HttpServerResponse response) {
+        return enabled ? active.getIfPresent(response) : null;
+    }
+
+    public void write(HttpServerResponse response, String chunk) {
+        var recording = find(response);
+        if (recording != null) append(response, recording, Buffer.buffer(chunk));
+    }
+
+    public void write(HttpServerResponse response, Buffer chunk) {
+        var recording = find(response);
+        if (recording != null) append(response, recording, chunk);
+    }
+
+    public void end(HttpServerResponse response, String chunk) {
+        end(response, chunk == null ? null : Buffer.buffer(chunk));
+    }
+
+    /**
+     * @param chunk the last chunk, or null.
+     */
+    public void end(HttpServerResponse response, Buffer chunk) {
+        var recording = find(response);
+        if (recording == null) return;
+        if (chunk != null) append(response, recording, chunk);
+        if (active.asMap().remove(response, recording)) recording.complete(response);
+    }
+
+    /**
+     * Stops recording a response whose body doesn't pass through the script, like files and piped streams.
+     */
+    public void abort(HttpServerResponse response) {
+        if (!enabled) return;
+        var recording = active.asMap().remove(response);
+        if (recording != null) recording.abort();
+    }
+
+    protected void append(HttpServerResponse response, Recording recording, Buffer chunk) {
+        if (!recording.append(chunk)) {
+            // too large to be reused, don't hold it any longer.
+            if (active.asMap().remove(response, recording)) recording.abort();
+        }
+    }
+
+    protected static final class Recording {
+        protected final List<Listener> listeners = new ArrayList<>(1);
+        protected long maxBytes;
+        protected Buffer body = Buffer.buffer();
+        protected boolean aborted;
+
+        protected Recording(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        /**
+         * @return false if the body would grow over the limit.
+         */
+        protected synchronized boolean append(Buffer chunk) {
+            if (aborted) return true;
+            if (body.length() + chunk.length() > maxBytes) return false;
+            body.appendBuffer(chunk);
+            return true;
+        }
+
+        protected void complete(HttpServerResponse response) {
+            List<Listener> listeners;
+            Buffer body;
+            synchronized (this) {
+                if (aborted) return;
+                listeners = List.copyOf(this.listeners);
+                body = this.body;
+            }
+            for (var listener : listeners) listener.onRecorded(response, body);
+        }
+
+        protected void abort() {
+            List<Listener> listeners;
+            synchronized (this) {
+                if (aborted) return;
+                aborted = true;
+                body = null;
+                listeners = List.copyOf(this.listeners);
+            }
+            for (var listener : listeners) listener.onAborted();
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Called by the thread ending the response. The body must not be modified.
+         */
+        void onRecorded(HttpServerResponse response, Buffer body);
+
+        /**
+         * The body won't be available, because it's too large or not written by the script.
+         */
+        default void onAborted() {
+        }
+    }
+}
@@ -17,30 +17,59 @@
 
 package io.ib67.edge.config;
 
+import io.vertx.core.http.Http2Settings;
+import io.vertx.core.http.HttpServerOptions;
+
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
 public record ServerConfig(
         String listenHost,
         int listenPort,
+        int listenInstances, // 0 for one instance per event loop
         String controlListenHost,
         int controlListenPort, // -1 to disable
         Map<String, String> engineOptions,
-        RuntimeConfig runtime
+        RuntimeConfig runtime,
+        HttpConfig http,
+        HttpConfig controlHttp,
+        boolean nativeTransport // epoll or kqueue if available, required by tcpFastOpen and reusePort
 ) {
     public static ServerConfig defaultConfig() {
         return new ServerConfig(
                 "localhost",
                 8080,
+                0,
                 "localhost",
                 8081,
                 Map.of(),
                 new RuntimeConfig(
                         "./lib",
                         1000,
+                        30000,
+                        1,
+                        DispatchMode.DIRECT,
+                        1024,
+                        256,
+                        1,
+                        4,
+                        false,
+                        List.of(),
+                        null,
+                        "./bundles",
+                        64,
+                        0,
+                        0,
+                        0,
+                        0,
+                        64,
                         Map.of(),
                         Map.of()
-                )
+                ),
+                new HttpConfig(true, 0, 60, 0, true, true, true, 0, 0, 0),
+                new HttpConfig(false, 0, 60, 0, true, false, false, 0, 0, 0),
+                true
         );
     }
 
@@ -49,20 +78,119 @@ public record ServerConfig(
         if (listenPort < 0 || listenPort > 65535) {
             throw new IllegalArgumentException("listenPort must be between 0 and 65535");
         }
+        if (listenInstances < 0) {
+            throw new IllegalArgumentException("listenInstances cannot be negative");
+        }
         engineOptions = engineOptions == null ? Map.of() : engineOptions;
         Objects.requireNonNull(runtime);
+        http = http == null ? HttpConfig.DEFAULT : http;
+        controlHttp = controlHttp == null ? HttpConfig.DEFAULT : controlHttp;
+    }
+
+    /**
+     * Options of a listener, unset values keep the defaults of Vert.x.
+     */
+    public record HttpConfig(
+            Boolean http2, // h2 by ALPN if TLS is enabled, and h2c over plain text
+            int compressionLevel, // 1-9, 0 to disable, files are no longer sent by sendfile(2) if enabled
+            int idleTimeoutSeconds, // closes idle connections, 0 to keep them
+            int maxHeaderSize, // in bytes, 0 for 8192
+            Boolean tcpNoDelay,
+            boolean tcpFastOpen, // requires the native transport
+            boolean reusePort, // balances connections between event loops in the kernel, requires the native transport
+            int sendBufferSize, // in bytes, 0 for the OS default
+            int receiveBufferSize, // in bytes, 0 for the OS default
+            int http2MaxConcurrentStreams // per connection, 0 for 100
+    ) {
+        public static final HttpConfig DEFAULT = new HttpConfig(null, 0, 0, 0, null, false, false, 0, 0, 0);
+
+        public HttpConfig {
+            http2 = http2 == null ? Boolean.TRUE : http2;
+            tcpNoDelay = tcpNoDelay == null ? Boolean.TRUE : tcpNoDelay;
+            if (compressionLevel < 0 || compressionLevel > 9) {
+                throw new IllegalArgumentException("compressionLevel must be between 0 and 9");
+            }
+            if (idleTimeoutSeconds < 0 || maxHeaderSize < 0 || sendBufferSize < 0 || receiveBufferSize < 0
+                    || http2MaxConcurrentStreams < 0) {
+                throw new IllegalArgumentException("Timeouts, sizes and limits of listeners cannot be negative");
+            }
+        }
+
+        public HttpServerOptions toServerOptions() {
+            var options = new HttpServerOptions()
+                    .setUseAlpn(http2)
+                    .setHttp2ClearTextEnabled(http2)
+                    .setTcpNoDelay(tcpNoDelay)
+                    .setTcpFastOpen(tcpFastOpen)
+                    .setReusePort(reusePort)
+                    .setIdleTimeout(idleTimeoutSeconds);
+            if (compressionLevel > 0) {
+                options.setCompressionSupported(true).setCompressionLevel(compressionLevel);
+            }
+            if (maxHeaderSize > 0) options.setMaxHeaderSize(maxHeaderSize);
+            if (sendBufferSize > 0) options.setSendBufferSize(sendBufferSize);
+            if (receiveBufferSize > 0) options.setReceiveBufferSize(receiveBufferSize);
+            if (http2MaxConcurrentStreams > 0) {
+                options.setInitialSettings(new Http2Settings().setMaxConcurrentStreams(http2MaxConcurrentStreams));
+            }
+            return options;
+        }
     }
 
     public record RuntimeConfig(
             String pathLibraries,
             int watchdogThresholdMillis,
+            int drainTimeoutMillis,
+            int instancesPerDeployment, // -1 for one instance per event loop
+            DispatchMode dispatchMode,
+            int maxInFlight, // per worker instance, -1 for unlimited
+            int maxQueued, // per worker instance, -1 for unlimited
+            int retryAfterSeconds,
+            int contextPoolSize, // -1 to disable
+            boolean watchLibraries, // reload changed libraries without restarting
+            List<String> eagerLibraries, // evaluated when an event loop starts instead of on first use, "*" for all
+            String codeCacheDirectory, // persists compiled code between runs, null to disable, no effect unless the server is a native image
+            String bundleDirectory, // stores uploaded deployment bundles
+            int maxBundleMegabytes, // per uploaded bundle, 0 for 64
+            int idleTimeoutSeconds, // evicts workers without requests for this long, 0 to keep them forever
+            long maxStatements, // per request, 0 for unlimited
+            int maxHeapMegabytes, // retained by a context, 0 for unlimited, requires Oracle GraalVM
+            int maxCpuTimeMillis, // per request, 0 for unlimited, requires Oracle GraalVM
+            int responseCacheMegabytes, // shared by deployments with cacheResponses, 0 to disable
             Map<String, String> guestContextOptions,
             Map<String, String> hostContextOptions
     ) {
         public RuntimeConfig {
             pathLibraries = pathLibraries == null ? "libraries" : pathLibraries;
+            drainTimeoutMillis = drainTimeoutMillis <= 0 ? 30000 : drainTimeoutMillis;
+            instancesPerDeployment = instancesPerDeployment == 0 ? 1 : instancesPerDeployment;
+            dispatchMode = dispatchMode == null ? DispatchMode.DIRECT : dispatchMode;
+            maxInFlight = maxInFlight == 0 ? 1024 : maxInFlight;
+            maxQueued = maxQueued == 0 ? 256 : maxQueued;
+            retryAfterSeconds = retryAfterSeconds <= 0 ? 1 : retryAfterSeconds;
+            contextPoolSize = contextPoolSize == 0 ? 4 : contextPoolSize;
+            eagerLibraries = eagerLibraries == null ? List.of() : eagerLibraries;
+            bundleDirectory = bundleDirectory == null ? "bundles" : bundleDirectory;
+            maxBundleMegabytes = maxBundleMegabytes <= 0 ? 64 : maxBundleMegabytes;
+            if (idleTimeoutSeconds < 0) {
+                throw new IllegalArgumentException("idleTimeoutSeconds cannot be negative");
+            }
+            if (responseCacheMegabytes < 0) {
+                throw new IllegalArgumentException("responseCacheMegabytes cannot be negative");
+            }
             guestContextOptions = guestContextOptions == null ? Map.of() : guestContextOptions;
             hostContextOptions = hostContextOptions == null ? Map.of() : hostContextOptions;
         }
     }
+
+    public enum DispatchMode {
+        /**
+         * Requests are handed to workers in-process, running on the worker context directly.
+         */
+        DIRECT,
+        /**
+         * Requests are delivered through the Vert.x event bus, which is required for remote/clustered delivery.
+         */
+        EVENT_BUS
+    }
 }
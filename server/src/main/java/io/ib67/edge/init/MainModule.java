@@ -17,19 +17,31 @@
 
 package io.ib67.edge.init;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
 import io.ib67.edge.ControlServerVerticle;
 import io.ib67.edge.ServerVerticle;
+import io.ib67.edge.WorkerRouter;
 import io.ib67.edge.api.EdgeServer;
+import io.ib67.edge.api.event.ComponentInitEvent;
 import io.ib67.edge.api.script.ExportToScript;
 import io.ib67.edge.api.script.future.Thenable;
+import io.ib67.edge.cache.RequestCoalescer;
+import io.ib67.edge.cache.ResponseCache;
+import io.ib67.edge.cache.ResponseRecorder;
 import io.ib67.edge.config.ServerConfig;
+import io.ib67.edge.script.CodeCache;
+import io.ib67.edge.script.ContextLimits;
 import io.ib67.edge.script.IsolatedRuntime;
 import io.ib67.edge.script.ScriptRuntime;
 import io.ib67.edge.script.locator.DirectoryModuleLocator;
+import io.ib67.edge.script.watchdog.Watchdog;
+import io.ib67.edge.serializer.ContentStore;
+import io.ib67.edge.serializer.SourceInterner;
 import io.ib67.kiwi.event.api.EventBus;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.extern.log4j.Log4j2;
@@ -41,6 +53,12 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static java.lang.Math.max;
 
 @Log4j2
 @RequiredArgsConstructor
@@ -59,17 +77,49 @@ public class MainModule extends AbstractModule {
         bind(ScriptRuntime.class).toInstance(runtime);
         bind(ServerConfig.class).toInstance(serverConfig);
 
-        log.info("Deploying server verticle...");
-        var serverVerticle = new ServerVerticle(serverConfig, runtime, bus);
+        var workerRouter = new WorkerRouter(vertx, Duration.ofMillis(serverConfig.runtime().drainTimeoutMillis()));
+        var watchdog = new Watchdog(
+                new ThreadFactoryBuilder().setNameFormat("watchdog-%d").setDaemon(true).build(),
+                Duration.ofMillis(max(serverConfig.runtime().watchdogThresholdMillis(), 50))
+        );
+        var instances = serverConfig.listenInstances() == 0
+                ? VertxOptions.DEFAULT_EVENT_LOOP_POOL_SIZE
+                : serverConfig.listenInstances();
+        var cacheMegabytes = serverConfig.runtime().responseCacheMegabytes();
+        var recorder = new ResponseRecorder();
+        var responseCache = cacheMegabytes > 0 ? new ResponseCache(cacheMegabytes * 1024L * 1024L, recorder) : null;
+        var coalescer = new RequestCoalescer(vertx, recorder, RequestCoalescer.DEFAULT_TIMEOUT);
+        log.info("Deploying {} server verticle(s)...", instances);
+        ServerVerticle serverVerticle = null;
+        var started = new ArrayList<Future<String>>(instances);
+        for (int i = 0; i < instances; i++) {
+            var verticle = new ServerVerticle(serverConfig, runtime, bus, workerRouter, watchdog, responseCache,
+                    coalescer, recorder);
+            if (serverVerticle == null) serverVerticle = verticle;
+            started.add(vertx.deployVerticle(verticle));
+        }
+        // all instances share the router, the first one is enough for deploying.
         bind(EdgeServer.class).toInstance(serverVerticle);
-        vertx.deployVerticle(serverVerticle);
+        bind(WorkerRouter.class).toInstance(workerRouter);
+        bind(ResponseRecorder.class).toInstance(recorder);
+        var interner = new SourceInterner();
+        bind(SourceInterner.class).toInstance(interner);
+        // listeners may deploy workers right away, which needs every instance to be started.
+        var server = serverVerticle;
+        Future.all(started)
+                .onSuccess(it -> bus.post(new ComponentInitEvent<>(server, EdgeServer.class)))
+                .onFailure(t -> log.error("Cannot start server verticles", t));
 
         if (serverConfig.controlListenPort() > 0) {
             log.info("Deploying control server...");
             var controlServerVerticle = new ControlServerVerticle(
                     serverConfig.controlListenHost(),
                     serverConfig.controlListenPort(),
-                    serverVerticle
+                    serverConfig.controlHttp(),
+                    serverVerticle,
+                    new ContentStore(Path.of(serverConfig.runtime().bundleDirectory())),
+                    serverConfig.runtime().maxBundleMegabytes() * 1024L * 1024,
+                    interner
             );
             vertx.deployVerticle(controlServerVerticle);
         } else {
@@ -78,20 +128,32 @@ public class MainModule extends AbstractModule {
     }
 
     private @NotNull IsolatedRuntime initializeRuntime(ServerConfig serverConfig) throws IOException {
+        var begin = System.nanoTime();
+        var pathLibraries = Path.of(serverConfig.runtime().pathLibraries());
+        Files.createDirectories(pathLibraries);
+        var codeCacheDirectory = serverConfig.runtime().codeCacheDirectory();
+        var codeCache = codeCacheDirectory == null ? null
+                : CodeCache.create(Path.of(codeCacheDirectory), pathLibraries,
+                List.of(Path.of(serverConfig.runtime().bundleDirectory())), serverConfig.engineOptions());
+
         log.info("Initializing Graal Polyglot Engine");
-        var engine = Engine.newBuilder("js")
+        var engineBuilder = Engine.newBuilder("js")
                 .in(InputStream.nullInputStream())
                 .err(OutputStream.nullOutputStream())
                 .out(OutputStream.nullOutputStream())
-                .options(serverConfig.engineOptions())
-                .build();
+                .options(serverConfig.engineOptions());
+        var trustedEngineBuilder = Engine.newBuilder();
+        if (codeCache != null) {
+            codeCache.configure(engineBuilder, "guest");
+            codeCache.configure(trustedEngineBuilder, "trusted");
+        }
+        var engine = engineBuilder.build();
         assert Future.succeededFuture() instanceof Thenable : "Mixin is not working yet";
 
-        var pathLibraries = Path.of(serverConfig.runtime().pathLibraries());
-        Files.createDirectories(pathLibraries);
         log.info("Initializing runtime...");
         var runtime = new IsolatedRuntime(
                 engine,
+                trustedEngineBuilder.build(),
                 new DirectoryModuleLocator(pathLibraries),
                 IsolatedRuntime.hostContainerAccess()
                         .allowImplementationsAnnotatedBy(ExportToScript.class)
@@ -100,6 +162,25 @@ public class MainModule extends AbstractModule {
         );
         runtime.setHostContextOptions(serverConfig.runtime().hostContextOptions());
         runtime.setGuestContextOptions(serverConfig.runtime().guestContextOptions());
+        runtime.setEagerLibraries(Set.copyOf(serverConfig.runtime().eagerLibraries()));
+        runtime.setBundleDirectory(Path.of(serverConfig.runtime().bundleDirectory()));
+        runtime.setDefaultLimits(ContextLimits.of(
+                serverConfig.runtime().maxStatements(),
+                serverConfig.runtime().maxHeapMegabytes(),
+                serverConfig.runtime().maxCpuTimeMillis()
+        ));
+        if (serverConfig.runtime().watchLibraries()) {
+            log.info("Watching libraries under {}", pathLibraries);
+            runtime.watchLibraries(pathLibraries,
+                    new ThreadFactoryBuilder().setNameFormat("library-watcher-%d").setDaemon(true).build());
+        }
+        var poolSize = serverConfig.runtime().contextPoolSize();
+        if (poolSize > 0) {
+            runtime.enableContextPool(poolSize,
+                    new ThreadFactoryBuilder().setNameFormat("context-pool-%d").setDaemon(true).build());
+        }
+        log.info("Runtime initialized in {} ms, code cache: {}", (System.nanoTime() - begin) / 1_000_000,
+                codeCache == null ? "disabled" : codeCache.isSupported() ? codeCache.getKey() : "unsupported");
         return runtime;
     }
 }
@@ -25,7 +25,8 @@ import io.ib67.edge.api.event.ServerStopEvent;
 import io.ib67.edge.api.plugin.EdgePlugin;
 import io.ib67.edge.api.plugin.EdgePluginConfig;
 import io.ib67.edge.api.plugin.PluginConfig;
-import io.ib67.edge.worker.ScriptWorker;
+import io.ib67.edge.serializer.ContentStore;
+import io.ib67.edge.serializer.SourceInterner;
 import io.ib67.kiwi.event.api.EventBus;
 import io.ib67.kiwi.event.api.EventListenerHost;
 import io.ib67.kiwi.event.api.annotation.SubscribeEvent;
@@ -34,8 +35,11 @@ import lombok.SneakyThrows;
 import lombok.extern.log4j.Log4j2;
 import org.pf4j.Extension;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
 
 @Log4j2
 @RequiredArgsConstructor(onConstructor_ = @Inject)
@@ -45,6 +49,7 @@ public class PersistDeploymentPlugin implements EdgePlugin<PersistDeploymentPlug
     protected final PersistRulesConfig persistRulesConfig;
     protected final EventBus bus;
     protected final EdgeServer server;
+    protected final SourceInterner interner;
 
     public PersistDeploymentPlugin(){
         throw new AssertionError("This constructor is a placeholder.");
@@ -60,9 +65,9 @@ public class PersistDeploymentPlugin implements EdgePlugin<PersistDeploymentPlug
             log.info("No deployments are found.");
             return;
         }
-        try (var stream = Files.walk(savePath)) {
+        try (var stream = Files.list(savePath)) {
             stream
-                    .filter(Files::isRegularFile)
+                    .filter(it -> Files.isRegularFile(it) && it.getFileName().toString().endsWith(".json"))
                     .peek(it -> log.info("Loading {}", it))
                     .map(this::tryLoadDeployment).forEach(it -> server.deploy(it));
         }
@@ -70,29 +75,56 @@ public class PersistDeploymentPlugin implements EdgePlugin<PersistDeploymentPlug
 
     @SneakyThrows
     private Deployment tryLoadDeployment(Path path) {
-        return mapper.readValue(Files.readAllBytes(path), Deployment.class);
+        return mapper.readerFor(Deployment.class)
+                .withAttribute(ContentStore.ATTRIBUTE, contentStore())
+                .withAttribute(SourceInterner.ATTRIBUTE, interner)
+                .readValue(Files.readAllBytes(path));
     }
 
     @SneakyThrows
     @SubscribeEvent
     void handleSaveDeployments(ServerStopEvent event) {
         log.info("Saving deployments");
-        var workers = server.getWorkers();
+        // idle deployments have no workers, but they are still deployed.
+        var deployments = server.getDeployments();
         var savePath = Path.of(persistRulesConfig.savePath());
         if (Files.notExists(savePath)) {
             Files.createDirectory(savePath);
         }
-        for (var entry : workers.entrySet()) {
+        // sources are stored once in the content store, deployments only refer to them.
+        var store = contentStore();
+        var writer = mapper.writer().withAttribute(ContentStore.ATTRIBUTE, store);
+        for (var entry : deployments.entrySet()) {
             var name = entry.getKey();
-            var value = entry.getValue();
-            if (!(value instanceof ScriptWorker worker)) continue;
             var save = savePath.resolve(name + ".json");
-            Files.write(save, mapper.writeValueAsBytes(worker.getDeployment()));
+            Files.write(save, writer.writeValueAsBytes(entry.getValue()));
             log.info("Saved deployment: {}", name);
         }
+        store.retain(referencedContents(savePath));
         log.info("All deployments saved without exception!");
     }
 
+    /**
+     * Deployments saved by previous runs may still refer to contents, so the references are collected from disk.
+     */
+    private Set<String> referencedContents(Path savePath) throws IOException {
+        var referenced = new HashSet<String>();
+        try (var stream = Files.list(savePath)) {
+            for (var path : (Iterable<Path>) stream::iterator) {
+                if (!path.getFileName().toString().endsWith(".json")) continue;
+                var source = mapper.readTree(path.toFile()).path("source");
+                if (source.path("type").asText().endsWith("-ref")) {
+                    referenced.add(source.path("data").asText());
+                }
+            }
+        }
+        return referenced;
+    }
+
+    protected ContentStore contentStore() {
+        return new ContentStore(Path.of(persistRulesConfig.savePath()).resolve("contents"));
+    }
+
     @EdgePluginConfig("persist_deployments.yml")
     public record PersistRulesConfig(
             String savePath
@@ -0,0 +1,148 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package io.ib67.edge.script;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.graalvm.polyglot.Engine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Persists the state of engines between runs with the auxiliary engine cache, which is stored when
+ * an engine is closed and loaded when it's created. The cache files are named by a key derived from
+ * the engine version, engine options, the content of libraries and the digests of deployment sources,
+ * so any change of them starts cold.
+ * <p>
+ * The auxiliary engine cache only works when the host itself is compiled by native-image with Oracle GraalVM.
+ * On a JVM the options may still be listed by the engine, but they are rejected when an engine is built, so this
+ * does nothing unless the server runs as a native image.
+ */
+@Log4j2
+public class CodeCache {
+    protected static final String OPTION_STORE = "engine.CacheStore";
+    protected static final String OPTION_LOAD = "engine.CacheLoad";
+    // set by native-image, read directly so that the server doesn't depend on its API.
+    protected static final String PROPERTY_IMAGE_CODE = "org.graalvm.nativeimage.imagecode";
+    protected final Path directory;
+    @Getter
+    protected final String key;
+    @Getter
+    protected final boolean supported;
+
+    protected CodeCache(Path directory, String key, boolean supported) {
+        this.directory = directory;
+        this.key = key;
+        this.supported = supported;
+    }
+
+    /**
+     * @param sources content addressed stores of deployment sources, files in them are named by their digests.
+     */
+    public static CodeCache create(
+            Path directory,
+            Path libraries,
+            List<Path> sources,
+            Map<String, String> engineOptions
+    ) throws IOException {
+        boolean supported;
+        String version;
+        var inImage = System.getProperty(PROPERTY_IMAGE_CODE) != null;
+        try (var probe = Engine.newBuilder().err(OutputStream.nullOutputStream()).build()) {
+            supported = inImage && probe.getOptions().get(OPTION_STORE) != null;
+            version = probe.getVersion();
+        }
+        var hasher = Hashing.sha256().newHasher();
+        hasher.putString(version, StandardCharsets.UTF_8);
+        new TreeMap<>(engineOptions).forEach((k, v) -> hasher.putString(k, StandardCharsets.UTF_8)
+                .putByte((byte) '=')
+                .putString(v, StandardCharsets.UTF_8));
+        hashLibraries(hasher, libraries);
+        for (var store : sources) {
+            hashSources(hasher, store);
+        }
+        var key = hasher.hash().toString().substring(0, 16);
+        if (supported) {
+            Files.createDirectories(directory);
+        } else if (!inImage) {
+            log.warn("Code cache is enabled but it only works in a native image of the server, ignoring it.");
+        } else {
+            log.warn("Code cache is enabled but the auxiliary engine cache isn't supported by this GraalVM.");
+        }
+        return new CodeCache(directory, key, supported);
+    }
+
+    protected static void hashLibraries(Hasher hasher, Path libraries) throws IOException {
+        if (Files.notExists(libraries)) return;
+        try (var stream = Files.walk(libraries, 32, FileVisitOption.FOLLOW_LINKS)) {
+            for (var file : stream.filter(Files::isRegularFile).sorted().toList()) {
+                hasher.putString(libraries.relativize(file).toString(), StandardCharsets.UTF_8);
+                hasher.putBytes(Files.readAllBytes(file));
+            }
+        }
+    }
+
+    /**
+     * Sources are stored by their digests, so only the names are hashed.
+     */
+    protected static void hashSources(Hasher hasher, Path store) throws IOException {
+        if (Files.notExists(store)) return;
+        try (var stream = Files.list(store)) {
+            for (var file : stream.filter(Files::isRegularFile).sorted().toList()) {
+                var name = file.getFileName().toString();
+                // uploads in progress.
+                if (name.endsWith(".tmp")) continue;
+                hasher.putString(name, StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    /**
+     * Loads the cache of the engine if there is one, otherwise the engine stores its state when it's closed.
+     * Stale caches of the same engine are removed.
+     *
+     * @param name distinguishes engines, every engine needs its own cache file.
+     */
+    public Engine.Builder configure(Engine.Builder builder, String name) throws IOException {
+        if (!supported) return builder;
+        var image = directory.resolve(name + "-" + key + ".image");
+        try (var files = Files.list(directory)) {
+            for (var file : files.toList()) {
+                var fileName = file.getFileName().toString();
+                if (fileName.startsWith(name + "-") && !file.equals(image)) Files.deleteIfExists(file);
+            }
+        }
+        builder.allowExperimentalOptions(true);
+        if (Files.exists(image)) {
+            log.info("Loading code cache {} for the {} engine", image, name);
+            return builder.option(OPTION_LOAD, image.toString());
+        }
+        log.info("No code cache for the {} engine, starting cold. It will be stored at {} on shutdown", name, image);
+        return builder.option(OPTION_STORE, image.toString());
+    }
+}
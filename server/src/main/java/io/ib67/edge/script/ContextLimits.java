@@ -0,0 +1,117 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge.script;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.ResourceLimits;
+
+import java.util.Locale;
+
+/**
+ * Resource limits of a guest context, negative numbers for unlimited. Statements and CPU time are counted
+ * per busy period: the counters are reset before a request only if no other request is running in the context,
+ * so concurrent requests share the budget and a runaway one can't be kept alive by new requests.
+ * Exceeding any limit cancels the context.
+ * <p>
+ * The statement limit is available on every GraalVM, heap and CPU time limits are sandbox options which
+ * only Oracle GraalVM supports, they are ignored elsewhere.
+ *
+ * @param maxStatements     statements executed by a request
+ * @param maxHeapMegabytes  heap retained by the context
+ * @param maxCpuTimeMillis  CPU time spent by a request
+ */
+public record ContextLimits(long maxStatements, int maxHeapMegabytes, int maxCpuTimeMillis) {
+    public static final ContextLimits UNLIMITED = new ContextLimits(-1, -1, -1);
+    protected static final String OPTION_MAX_HEAP = "sandbox.MaxHeapMemory";
+    protected static final String OPTION_MAX_CPU_TIME = "sandbox.MaxCPUTime";
+
+    public ContextLimits {
+        if (maxStatements == 0 || maxHeapMegabytes == 0 || maxCpuTimeMillis == 0) {
+            throw new IllegalArgumentException("Limits cannot be zero, use a negative number for unlimited");
+        }
+    }
+
+    /**
+     * Normalizes configured values, where zero or negative numbers mean unlimited.
+     */
+    public static ContextLimits of(long maxStatements, int maxHeapMegabytes, int maxCpuTimeMillis) {
+        return new ContextLimits(
+                maxStatements > 0 ? maxStatements : -1,
+                maxHeapMegabytes > 0 ? maxHeapMegabytes : -1,
+                maxCpuTimeMillis > 0 ? maxCpuTimeMillis : -1
+        );
+    }
+
+    public boolean isLimited() {
+        return maxStatements > 0 || maxHeapMegabytes > 0 || maxCpuTimeMillis > 0;
+    }
+
+    public boolean requiresSandbox() {
+        return maxHeapMegabytes > 0 || maxCpuTimeMillis > 0;
+    }
+
+    public static boolean isSandboxSupported(Engine engine) {
+        return engine.getOptions().get(OPTION_MAX_CPU_TIME) != null;
+    }
+
+    /**
+     * @param sandbox whether sandbox options can be applied, see {@link #isSandboxSupported(Engine)}.
+     */
+    public Context.Builder apply(Context.Builder builder, boolean sandbox) {
+        if (maxStatements > 0) {
+            builder.resourceLimits(ResourceLimits.newBuilder()
+                    .statementLimit(maxStatements, null)
+                    .build());
+        }
+        if (sandbox && maxHeapMegabytes > 0) builder.option(OPTION_MAX_HEAP, maxHeapMegabytes + "MB");
+        if (sandbox && maxCpuTimeMillis > 0) builder.option(OPTION_MAX_CPU_TIME, maxCpuTimeMillis + "ms");
+        return builder;
+    }
+
+    public enum Kind {
+        STATEMENTS, HEAP, CPU_TIME, OTHER,
+        /**
+         * Cancelled by the {@link io.ib67.edge.script.watchdog.Watchdog} for ignoring its interruption,
+         * the exception alone doesn't tell it apart from other cancellations.
+         */
+        TIMEOUT;
+
+        /**
+         * @return the limit that was exceeded, or null if the exception isn't caused by a limit.
+         * The polyglot API doesn't tell which limit is hit, so it's told from the message. Contexts cancelled
+         * for other reasons, like undeploying or shutting down, are not limit hits.
+         */
+        public static Kind of(Throwable throwable) {
+            if (!(throwable instanceof PolyglotException e)) return null;
+            if (!e.isResourceExhausted() && !e.isCancelled()) return null;
+            var message = e.getMessage() == null ? "" : e.getMessage().toLowerCase(Locale.ROOT);
+            Kind kind = null;
+            if (message.contains("limit")) {
+                if (message.contains("statement")) kind = STATEMENTS;
+                else if (message.contains("cpu")) kind = CPU_TIME;
+                else if (message.contains("memory") || message.contains("heap")) kind = HEAP;
+            }
+            if (kind != null) return kind;
+            // the host ran out of memory or stack while running the guest.
+            return e.isResourceExhausted() && !e.isCancelled() ? OTHER : null;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package io.ib67.edge.script;
+
+import lombok.extern.log4j.Log4j2;
+import org.graalvm.polyglot.Context;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Keeps a few contexts built ahead of time, so deploying a script doesn't pay for creating a context and
+ * initializing the language. Taking a context triggers a refill on a background thread.
+ * When the pool is drained, contexts are built on the caller thread as before.
+ */
+@Log4j2
+public class ContextPool implements AutoCloseable {
+    protected final Supplier<Context> factory;
+    protected final BlockingQueue<Context> pool;
+    protected final ExecutorService refiller;
+    protected final AtomicBoolean refilling = new AtomicBoolean();
+    protected final LongAdder hits = new LongAdder();
+    protected final LongAdder misses = new LongAdder();
+    protected volatile boolean closed;
+
+    public ContextPool(Supplier<Context> factory, int size, ThreadFactory threadFactory) {
+        if (size <= 0) throw new IllegalArgumentException("Pool size must be positive");
+        this.factory = factory;
+        this.pool = new ArrayBlockingQueue<>(size);
+        this.refiller = Executors.newSingleThreadExecutor(threadFactory);
+        refill();
+    }
+
+    public Context take() {
+        if (closed) throw new IllegalStateException("Context pool has been closed");
+        var context = pool.poll();
+        if (context != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            context = factory.get();
+        }
+        refill();
+        return context;
+    }
+
+    protected void refill() {
+        if (closed || !refilling.compareAndSet(false, true)) return;
+        refiller.execute(() -> {
+            try {
+                while (!closed && pool.remainingCapacity() > 0) {
+                    var context = factory.get();
+                    if (closed || !pool.offer(context)) {
+                        context.close(true);
+                        break;
+                    }
+                }
+            } catch (Exception e) {
+                log.error("Error occurred when refilling the context pool", e);
+            } finally {
+                refilling.set(false);
+            }
+        });
+    }
+
+    public Stats getStats() {
+        return new Stats(pool.size(), hits.sum(), misses.sum());
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        refiller.shutdownNow();
+        Context context;
+        while ((context = pool.poll()) != null) {
+            context.close(true);
+        }
+    }
+
+    /**
+     * @param idle   contexts ready to be taken
+     * @param hits   deploys served by a pooled context
+     * @param misses deploys that had to build a context themselves
+     */
+    public record Stats(int idle, long hits, long misses) {
+    }
+}
@@ -18,31 +18,46 @@
 package io.ib67.edge.script;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.jimfs.Jimfs;
 import io.ib67.edge.Edge;
 import io.ib67.edge.api.event.AsyncPrivilegeContextEvent;
 import io.ib67.edge.api.script.ExportToScript;
 import io.ib67.edge.script.context.IncrementalModuleContext;
+import io.ib67.edge.script.io.BundleFileSystem;
 import io.ib67.edge.script.io.ESModuleFS;
+import io.ib67.edge.script.io.FileRegion;
+import io.ib67.edge.script.io.ResolutionCache;
+import io.ib67.edge.script.io.StubFileSystem;
+import io.ib67.edge.script.locator.LibraryWatcher;
 import io.ib67.edge.script.locator.ModuleLocator;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j2;
 import org.graalvm.polyglot.*;
 import org.graalvm.polyglot.io.FileSystem;
 import org.graalvm.polyglot.io.IOAccess;
 
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ThreadFactory;
 import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
+@Log4j2
 public class IsolatedRuntime extends ScriptRuntime {
+    /**
+     * @param libraries the snapshot of libraries evaluated in the context.
+     */
     public record ModuleContext(
             IncrementalModuleContext scriptContext,
-            StubModuleLocator stubLocator
+            StubModuleLocator stubLocator,
+            LibraryStubCache libraries
     ) implements AutoCloseable {
         // todo uniformed thread local management (lifecycle) to avoid memory leak
         @Override
@@ -51,15 +66,19 @@ public class IsolatedRuntime extends ScriptRuntime {
         }
     }
 
-    //todo write to host CACHE_DIR only when imfs is taking too many resources.
-//    protected static final String CACHE_DIR =
-//            System.getProperty("edge.isolatedruntime.stub.cachedir", System.getProperty("java.io.tmpdir"));
+    // stubs are served from memory, this is just the prefix of their paths.
     protected static final String CACHE_DIR = "/_edge_cache";
-    protected final ThreadLocal<ModuleContext> perThreadLibrary;
+    protected static final String BUNDLE_DIR = "/_edge_bundle";
+    protected static final int RESOLUTION_CACHE_SIZE = 256;
+    protected final ModuleContextLocal perThreadLibrary;
     protected final ModuleLocator moduleLocator;
-    protected final FileSystem guestFS;
+    protected final BundleFileSystem guestFS;
     protected final Engine trustedEngine;
-    protected final java.nio.file.FileSystem cacheInMemFs;
+    protected volatile LibraryStubCache stubCache;
+    protected LibraryWatcher libraryWatcher;
+    protected final ResolutionCache.Stats resolutionStats = new ResolutionCache.Stats();
+    protected final ThreadLocal<ResolutionCache> resolutionCache =
+            ThreadLocal.withInitial(() -> new ResolutionCache(RESOLUTION_CACHE_SIZE, resolutionStats));
     @Getter
     protected final HostAccess hostAccess;
     @Getter
@@ -68,6 +87,19 @@ public class IsolatedRuntime extends ScriptRuntime {
     @Getter
     @Setter
     protected Map<String, String> guestContextOptions = new HashMap<>();
+    /**
+     * Libraries evaluated as soon as a thread's module context is created, others are evaluated on first access.
+     * {@code *} matches all libraries.
+     */
+    @Getter
+    @Setter
+    protected Set<String> eagerLibraries = Set.of();
+    /**
+     * Where uploaded bundles are stored, named by their digests. Bundles are disabled if it's null.
+     */
+    @Getter
+    @Setter
+    protected volatile Path bundleDirectory;
 
     public IsolatedRuntime(ModuleLocator moduleLocator) {
         this(Engine.create(), moduleLocator, HostAccess.NONE);
@@ -79,22 +111,38 @@ public class IsolatedRuntime extends ScriptRuntime {
                 .allowListAccess(true)
                 .allowArrayAccess(true)
                 .allowIterableAccess(true)
-                .allowIteratorAccess(true);
+                .allowIteratorAccess(true)
+                .allowBufferAccess(true);
     }
 
     public IsolatedRuntime(
             Engine engine,
             ModuleLocator locator,
             HostAccess defaultAccess
+    ) {
+        this(engine, Engine.create(), locator, defaultAccess);
+    }
+
+    /**
+     * @param trustedEngine runs libraries, it's closed along with the runtime.
+     */
+    public IsolatedRuntime(
+            Engine engine,
+            Engine trustedEngine,
+            ModuleLocator locator,
+            HostAccess defaultAccess
     ) {
         super(engine);
-        this.trustedEngine = Engine.create();
+        this.trustedEngine = trustedEngine;
         // map access is necessary for guest codes to access libraries (in scope[])
         this.hostAccess = HostAccess.newBuilder(defaultAccess).allowMapAccess(true).build();
         this.moduleLocator = locator;
-        this.perThreadLibrary = ThreadLocal.withInitial(this::createModuleContext);
-        this.cacheInMemFs = Jimfs.newFileSystem();
-        this.guestFS = FileSystem.newReadOnlyFileSystem(FileSystem.newFileSystem(cacheInMemFs));
+        this.perThreadLibrary = new ModuleContextLocal();
+        this.guestFS = new BundleFileSystem(
+                new StubFileSystem(Path.of(CACHE_DIR), () -> perThreadLibrary.get().stubLocator().getLastCache()),
+                Path.of(BUNDLE_DIR),
+                digest -> bundleDirectory == null ? null : bundleDirectory.resolve(digest)
+        );
     }
 
     protected Context.Builder createPrivilegedContext() {
@@ -107,30 +155,120 @@ public class IsolatedRuntime extends ScriptRuntime {
     }
 
     protected LibraryStubCache createStubCache(ModuleLocator locator) {
+        return createStubCache(locator, null, Set.of());
+    }
+
+    /**
+     * @param previous libraries not in {@code changed} are reused from this snapshot, if present.
+     */
+    protected LibraryStubCache createStubCache(ModuleLocator locator, LibraryStubCache previous, Set<String> changed) {
+        var begin = System.nanoTime();
         var temporyContext = createPrivilegedContext().build();
-        var stubCache = new LibraryStubCache(temporyContext, locator);
-        temporyContext.close(true);
-        return stubCache;
+        try {
+            var stubCache = new LibraryStubCache(temporyContext, locator, previous, changed);
+            log.info("Discovered {} libraries in {} ms (version {})", stubCache.discoveredLibraries().size(),
+                    (System.nanoTime() - begin) / 1_000_000, stubCache.getVersion());
+            return stubCache;
+        } finally {
+            temporyContext.close(true);
+        }
+    }
+
+    /**
+     * The stub cache is an immutable snapshot of the libraries, it's built once and shared by every thread.
+     */
+    protected LibraryStubCache getStubCache() {
+        var cache = stubCache;
+        if (cache != null) return cache;
+        synchronized (this) {
+            if (stubCache == null) stubCache = createStubCache(this.moduleLocator);
+            return stubCache;
+        }
+    }
+
+    /**
+     * Builds a new snapshot where only the changed libraries are read and evaluated again.
+     * Threads pick up the new snapshot at their next request, see {@link #beforeRequest()}.
+     */
+    public synchronized void reloadLibraries(Set<String> changed) {
+        var previous = getStubCache();
+        try {
+            stubCache = createStubCache(this.moduleLocator, previous, changed);
+        } catch (Exception e) {
+            log.error("Cannot reload libraries {}, keeping version {}", changed, previous.getVersion(), e);
+        }
+    }
+
+    /**
+     * Watches the library directory and reloads changed libraries automatically.
+     */
+    public synchronized void watchLibraries(Path libraryRoot, ThreadFactory threadFactory) throws IOException {
+        if (libraryWatcher != null) throw new IllegalStateException("Libraries are already being watched");
+        libraryWatcher = new LibraryWatcher(libraryRoot, threadFactory, this::reloadLibraries);
+    }
+
+    @Override
+    protected void beforeRequest() {
+        var moduleContext = perThreadLibrary.get();
+        var latest = stubCache;
+        if (moduleContext.libraries() != latest) {
+            perThreadLibrary.set(upgradeModuleContext(moduleContext, latest));
+        }
+    }
+
+    /**
+     * Re-evaluates changed libraries in the existing context, so the untouched ones keep their compiled code.
+     * Libraries are compared by identity, unchanged libraries are the same object across snapshots.
+     */
+    protected ModuleContext upgradeModuleContext(ModuleContext moduleContext, LibraryStubCache latest) {
+        var scriptContext = moduleContext.scriptContext();
+        var current = moduleContext.libraries().getLibrarySources();
+        var updated = latest.getLibrarySources();
+        for (String module : current.keySet()) {
+            if (!updated.containsKey(module)) scriptContext.removeModule(module);
+        }
+        for (var entry : updated.entrySet()) {
+            if (current.get(entry.getKey()) == entry.getValue()) continue;
+            try {
+                // the previous version keeps serving if the new one fails to evaluate.
+                reloadLibrary(scriptContext, entry.getKey(), entry.getValue());
+            } catch (RuntimeException e) {
+                // don't retry on every request, the library is unavailable until it's fixed.
+                log.error("Cannot load library {} of version {}", entry.getKey(), latest.getVersion(), e);
+            }
+        }
+        moduleContext.stubLocator().updateCache(latest);
+        return new ModuleContext(scriptContext, moduleContext.stubLocator(), latest);
+    }
+
+    protected void loadLibrary(IncrementalModuleContext scriptContext, String module, Library library) {
+        scriptContext.addLazyModule(module, library.source());
+        if (isEager(module)) scriptContext.getModule(module);
+    }
+
+    protected void reloadLibrary(IncrementalModuleContext scriptContext, String module, Library library) {
+        scriptContext.reloadModule(module, library.source());
+        if (isEager(module)) scriptContext.getModule(module);
+    }
+
+    protected boolean isEager(String module) {
+        return eagerLibraries.contains("*") || eagerLibraries.contains(module);
     }
 
     /**
      * This run on the ThreadLocal of context thread
      */
-    //todo hot-reload?
     protected ModuleContext createModuleContext() {
         var context = createPrivilegedContext();
 
-        //todo versioned libraries based on jimfs or wtf
-        var stubLocator = new StubModuleLocator(cacheInMemFs.getPath(CACHE_DIR));
-        var stubCache = createStubCache(this.moduleLocator);
+        var stubLocator = new StubModuleLocator(guestFS.parsePath(CACHE_DIR));
+        var stubCache = getStubCache();
         stubLocator.updateCache(stubCache);
 
         var scriptContext = new IncrementalModuleContext(context.build());
         var librarySources = stubCache.getLibrarySources();
         for (String module : librarySources.keySet()) {
-            for (Source source : librarySources.get(module).source()) {
-                scriptContext.evalModule(module, source);
-            }
+            loadLibrary(scriptContext, module, librarySources.get(module));
         }
         var binding = scriptContext.getScriptContext().getBindings("js");
         var event = new AsyncPrivilegeContextEvent(
@@ -141,7 +279,101 @@ public class IsolatedRuntime extends ScriptRuntime {
         binding.putMember("env", event.env());
         binding.putMember("plugins", event.plugins());
         binding.putMember("injector", Edge.getDefaultInjector());
-        return new ModuleContext(scriptContext, stubLocator);
+        return new ModuleContext(scriptContext, stubLocator, stubCache);
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        var stats = super.getStats();
+        stats.put("moduleResolution", resolutionStats.snapshot());
+        return stats;
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (libraryWatcher != null) libraryWatcher.close();
+        super.close();
+        trustedEngine.close(true);
+    }
+
+    /**
+     * The entrypoint is read from the mapped archive, its path points into the bundle so that relative imports
+     * are resolved by {@link BundleFileSystem}.
+     */
+    @Override
+    public Source loadBundle(String bundle, String entrypoint) throws IOException {
+        var archive = guestFS.open(bundle);
+        if (archive == null) throw new NoSuchFileException("Bundle " + bundle + " is not uploaded");
+        var path = archive.getRoot().resolve(entrypoint).normalize();
+        if (!path.startsWith(archive.getRoot())) throw new IllegalArgumentException("Invalid entrypoint: " + entrypoint);
+        var content = StandardCharsets.UTF_8.decode(archive.read(path)).toString();
+        return Source.newBuilder("js", path.toFile())
+                .content(content)
+                .mimeType("application/javascript+module")
+                .build();
+    }
+
+    @Override
+    protected void retainBundle(String bundle) {
+        guestFS.retain(bundle);
+    }
+
+    @Override
+    protected void releaseBundle(String bundle) {
+        guestFS.release(bundle);
+    }
+
+    /**
+     * Only files inside the bundle can be sent, stored entries are sent from the archive directly.
+     */
+    @Override
+    public FileRegion locateFile(String bundle, String path) throws IOException {
+        var fs = guestFS.scoped(bundle);
+        var parsed = path.startsWith("file:") ? fs.parsePath(URI.create(path)) : fs.parsePath(path);
+        return fs.locate(parsed);
+    }
+
+    /**
+     * The privileged context isn't bound to the thread creating it, it's only entered by one thread at a time.
+     */
+    @Override
+    public Runnable prepareThread() {
+        var prepared = createModuleContext();
+        return () -> {
+            // a request or another verticle on the same event loop may have created one meanwhile.
+            if (perThreadLibrary.peek() == null) {
+                perThreadLibrary.set(prepared);
+                return;
+            }
+            try {
+                prepared.close();
+            } catch (Exception e) {
+                log.warn("Cannot close an unused module context", e);
+            }
+        };
+    }
+
+    /**
+     * Creates the module context of a thread on first use, like {@link ThreadLocal#withInitial}, but can also
+     * tell whether a thread has one without creating it.
+     */
+    protected final class ModuleContextLocal extends ThreadLocal<ModuleContext> {
+        @Override
+        public ModuleContext get() {
+            var context = super.get();
+            if (context == null) {
+                context = createModuleContext();
+                set(context);
+            }
+            return context;
+        }
+
+        /**
+         * @return the context of the current thread, or null if it has none yet.
+         */
+        public ModuleContext peek() {
+            return super.get();
+        }
     }
 
     @Override
@@ -152,7 +384,7 @@ public class IsolatedRuntime extends ScriptRuntime {
     }
 
     @Override
-    protected UnaryOperator<Context.Builder> configureContext() {
+    protected UnaryOperator<Context.Builder> configureContext(String bundle) {
         return it -> it
                 .options(guestContextOptions)
                 .option("js.esm-eval-returns-exports", "true")
@@ -160,14 +392,22 @@ public class IsolatedRuntime extends ScriptRuntime {
                 .allowIO(IOAccess.newBuilder()
                         .allowHostSocketAccess(false)
                         .fileSystem(FileSystem.newReadOnlyFileSystem(
-                                new ESModuleFS(this.guestFS, () -> perThreadLibrary.get().stubLocator())
+                                new ESModuleFS(
+                                        this.guestFS.scoped(bundle),
+                                        () -> perThreadLibrary.get().stubLocator(),
+                                        resolutionCache::get
+                                )
                         )).build());
     }
 
+    /**
+     * Stubs live in a directory per snapshot version, since threads may be on different versions.
+     * The files are served by {@link StubFileSystem}, nothing is written here.
+     */
     protected static class StubModuleLocator implements ModuleLocator {
         protected final Path cacheRoot;
         protected LibraryStubCache stubCache;
-        protected Set<String> generatedStubs;
+        protected Path versionRoot;
 
         protected StubModuleLocator(
                 Path cacheRoot
@@ -177,7 +417,7 @@ public class IsolatedRuntime extends ScriptRuntime {
 
         public void updateCache(LibraryStubCache cache) {
             this.stubCache = cache;
-            this.generatedStubs = new HashSet<>();
+            this.versionRoot = cacheRoot.resolve(String.valueOf(cache.getVersion()));
         }
 
         public LibraryStubCache getLastCache() {
@@ -185,66 +425,121 @@ public class IsolatedRuntime extends ScriptRuntime {
             return stubCache;
         }
 
+        @Override
+        public long generation() {
+            return stubCache == null ? -1 : stubCache.getVersion();
+        }
+
         @Override
         public Set<String> discoverModules() {
             Objects.requireNonNull(stubCache, "stubCache not initialized.");
             return stubCache.discoveredLibraries();
         }
 
-        protected static String generateStub(String scope, List<String> symbols) {
-            var stub = new StringBuilder();
-            for (String s : symbols) {
-                stub.append("let _").append(s).append("=scope[\"").append(scope).append("\"][\"").append(s).append("\"];");
-            }
-            stub.append("\nexport {");
-            stub.append(symbols.stream().map(it -> "_" + it + " as " + it).collect(Collectors.joining(",")));
-            stub.append("}");
-            return stub.toString();
-        }
-
         @Override
         public Path locateRoot(String module) {
-            var moduleRoot = cacheRoot.resolve(module);
-            if (!moduleRoot.normalize().startsWith(cacheRoot.normalize()))
+            Objects.requireNonNull(versionRoot, "stubCache not initialized.");
+            var moduleRoot = versionRoot.resolve(module);
+            if (!moduleRoot.normalize().startsWith(versionRoot.normalize()))
                 throw new IllegalArgumentException("Module root is out of cache root: " + moduleRoot);
             return moduleRoot;
         }
 
         @Override
-        @SneakyThrows
         public Path locateModule(String module, String file) {
             Objects.requireNonNull(stubCache, "stubCache not initialized.");
-            var index = locateRoot(module).resolve("_index.mjs");
-            if (generatedStubs.contains(module)) {
-                return index;
+            if (stubCache.getStub(module) == null) {
+                throw new IllegalArgumentException("Module " + module + " does not exist or does not export anything");
             }
-            Files.createDirectories(index.getParent());
-            Files.writeString(index, generateStub(module, stubCache.getSymbolsFromModule(module)));
-            generatedStubs.add(module);
-            return index;
+            return locateRoot(module).resolve(StubFileSystem.STUB_FILE);
         }
     }
 
-    protected static class LibraryStubCache {
+    /**
+     * Immutable once built, thus safe to be shared between threads.
+     * A new version can be built on top of a previous one, reusing the libraries that haven't changed.
+     */
+    protected static class LibraryStubCache implements StubFileSystem.Stubs {
         private static final ObjectMapper SHARED_MAPPER = new ObjectMapper();
         protected final ModuleLocator locator;
         @Getter
-        protected final Map<String, Library> librarySources = new HashMap<>();
-        protected final Map<String, List<String>> exportedSymbols = new HashMap<>();
+        protected final long version;
+        @Getter
+        protected final Map<String, Library> librarySources;
+        protected final Map<String, List<String>> exportedSymbols;
+        protected final Map<String, byte[]> stubs;
 
         protected LibraryStubCache(Context cachePreloadContext, ModuleLocator locator) {
+            this(cachePreloadContext, locator, null, Set.of());
+        }
+
+        protected LibraryStubCache(
+                Context cachePreloadContext,
+                ModuleLocator locator,
+                LibraryStubCache previous,
+                Set<String> changed
+        ) {
             this.locator = locator;
-            buildCache(cachePreloadContext, locator);
+            this.version = previous == null ? 0 : previous.version + 1;
+            var sources = new HashMap<String, Library>();
+            var symbols = new HashMap<String, List<String>>();
+            buildCache(cachePreloadContext, locator, previous, changed, sources, symbols);
+            this.librarySources = Map.copyOf(sources);
+            this.exportedSymbols = Map.copyOf(symbols);
+            var stubs = new HashMap<String, byte[]>();
+            for (var entry : exportedSymbols.entrySet()) {
+                var module = entry.getKey();
+                var reused = previous != null && previous.librarySources.get(module) == librarySources.get(module);
+                stubs.put(module, reused
+                        ? previous.stubs.get(module)
+                        : generateStub(module, entry.getValue()).getBytes(StandardCharsets.UTF_8));
+            }
+            this.stubs = Map.copyOf(stubs);
         }
 
-        private void buildCache(Context cachePreloadContext, ModuleLocator locator) {
+        protected static String generateStub(String scope, List<String> symbols) {
+            var stub = new StringBuilder();
+            for (String s : symbols) {
+                stub.append("let _").append(s).append("=scope[\"").append(scope).append("\"][\"").append(s).append("\"];");
+            }
+            stub.append("\nexport {");
+            stub.append(symbols.stream().map(it -> "_" + it + " as " + it).collect(Collectors.joining(",")));
+            stub.append("}");
+            return stub.toString();
+        }
+
+        /**
+         * The returned array is shared, callers must not modify it.
+         */
+        @Override
+        public byte[] getStub(String module) {
+            return stubs.get(module);
+        }
+
+        @Override
+        public Set<String> getModules() {
+            return stubs.keySet();
+        }
+
+        private void buildCache(
+                Context cachePreloadContext,
+                ModuleLocator locator,
+                LibraryStubCache previous,
+                Set<String> changed,
+                Map<String, Library> librarySources,
+                Map<String, List<String>> exportedSymbols
+        ) {
             var libraries = locator.discoverModules();
             for (String library : libraries) {
+                if (previous != null && !changed.contains(library) && previous.librarySources.containsKey(library)) {
+                    librarySources.put(library, previous.librarySources.get(library));
+                    exportedSymbols.put(library, previous.exportedSymbols.get(library));
+                    continue;
+                }
                 var libRoot = locator.locateRoot(library);
-                librarySources.put(library, new Library(discoverSources(libRoot)));
-            }
-            for (String key : librarySources.keySet()) {
-                exportedSymbols.put(key, librarySources.get(key).extractExportedSymbols(cachePreloadContext));
+                var lib = new Library(discoverSources(libRoot));
+                librarySources.put(library, lib);
+                exportedSymbols.put(library, List.copyOf(lib.extractExportedSymbols(cachePreloadContext)));
             }
         }
 
@@ -312,17 +607,17 @@ public class IsolatedRuntime extends ScriptRuntime {
 
         @Override
         public int size() {
-            return getScriptContext().getModuleExports().size();
+            return getScriptContext().getModuleNames().size();
         }
 
         @Override
         public boolean isEmpty() {
-            return getScriptContext().getModuleExports().isEmpty();
+            return getScriptContext().getModuleNames().isEmpty();
         }
 
         @Override
         public boolean containsKey(Object key) {
-            return getScriptContext().getModuleExports().containsKey(key);
+            return getScriptContext().getModuleNames().contains(key);
         }
 
         @Override
@@ -333,7 +628,8 @@ public class IsolatedRuntime extends ScriptRuntime {
         @ExportToScript
         @Override
         public Object get(Object key) {
-            return getScriptContext().getModuleExports().get(key);
+            // libraries are evaluated here on first access.
+            return key instanceof String module ? getScriptContext().getModule(module) : null;
         }
 
         @Override
@@ -359,7 +655,7 @@ public class IsolatedRuntime extends ScriptRuntime {
         @Override
         @ExportToScript
         public Set<String> keySet() {
-            return getScriptContext().getModuleExports().keySet();
+            return getScriptContext().getModuleNames();
         }
 
         @Override
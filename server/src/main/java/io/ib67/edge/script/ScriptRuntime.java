@@ -19,23 +19,53 @@ package io.ib67.edge.script;
 
 import io.ib67.edge.script.context.ScriptContext;
 import io.ib67.edge.script.exception.ContextInitException;
+import io.ib67.edge.script.io.FileRegion;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.log4j.Log4j2;
 import org.graalvm.polyglot.*;
 import org.graalvm.polyglot.io.IOAccess;
 
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
 import java.util.function.Consumer;
 import java.util.function.UnaryOperator;
 
-public class ScriptRuntime implements AutoCloseable {
+@Log4j2
+public abstract class ScriptRuntime implements AutoCloseable {
+    /**
+     * Only contexts for this language are pooled, since their bindings are initialized ahead of time.
+     */
+    protected static final String POOLED_LANGUAGE = "js";
     protected final Engine engine;
+    @Getter
+    protected ContextPool contextPool;
+    /**
+     * Applied to contexts created without explicit limits, including pooled ones.
+     */
+    @Getter
+    @Setter
+    protected ContextLimits defaultLimits = ContextLimits.UNLIMITED;
+    protected ContextLimits pooledLimits;
+    @Getter
+    protected final boolean sandboxSupported;
+    protected volatile boolean sandboxWarned;
 
     public ScriptRuntime(Engine engine) {
         this.engine = engine;
+        this.sandboxSupported = ContextLimits.isSandboxSupported(engine);
     }
 
     protected void initializeBinding(Value binding) {
     }
 
-    protected UnaryOperator<Context.Builder> configureContext() {
+    /**
+     * @param bundle digest of the bundle the context may read, or null.
+     */
+    protected UnaryOperator<Context.Builder> configureContext(String bundle) {
         return it -> it.allowIO(IOAccess.NONE).allowHostAccess(getHostAccess());
     }
 
@@ -43,6 +73,60 @@ public class ScriptRuntime implements AutoCloseable {
         return HostAccess.NONE;
     }
 
+    /**
+     * Should be called after the runtime is configured, pooled contexts are built with the configuration at that time.
+     */
+    public void enableContextPool(int size, ThreadFactory threadFactory) {
+        if (contextPool != null) throw new IllegalStateException("Context pool is already enabled");
+        var limits = pooledLimits = defaultLimits;
+        contextPool = new ContextPool(() -> newContext(POOLED_LANGUAGE, limits, null), size, threadFactory);
+    }
+
+    /**
+     * Prepares per-thread resources on the calling thread, which can be a blocking worker thread.
+     * The returned action only installs them and is run on the thread which is going to handle requests,
+     * so that the first request on it won't pay for them.
+     */
+    public Runnable prepareThread() {
+        return () -> {
+        };
+    }
+
+    /**
+     * Called before every request on the thread handling it, runtimes may update per-thread states here.
+     */
+    protected void beforeRequest() {
+    }
+
+    protected Context newContext(String language, ContextLimits limits, String bundle) {
+        var _context = Context.newBuilder().engine(engine);
+        _context = configureContext(bundle).apply(_context).allowHostAccess(getHostAccess());
+        if (limits.requiresSandbox() && !sandboxSupported && !sandboxWarned) {
+            sandboxWarned = true;
+            log.warn("Heap and CPU time limits are not supported by this GraalVM, only statements are limited.");
+        }
+        _context = limits.apply(_context, sandboxSupported);
+        var gContext = _context.build();
+        initializeBinding(gContext.getBindings(language));
+        return gContext;
+    }
+
+    /**
+     * @param bundle     digest of an uploaded archive.
+     * @param entrypoint path of the entry module inside the bundle.
+     * @return the entry module, whose relative imports are resolved inside the bundle.
+     */
+    public abstract Source loadBundle(String bundle, String entrypoint) throws IOException;
+
+    /**
+     * @param bundle digest of the bundle the file is looked up in, files outside of it are never found.
+     * @param path   a path seen by scripts, either a plain path or a {@code file:} URL like {@code import.meta.url}.
+     * @return the file to be sent to clients.
+     */
+    public FileRegion locateFile(String bundle, String path) throws IOException {
+        throw new NoSuchFileException(path);
+    }
+
     public ScriptContext create(Source source) throws ContextInitException {
         return create(source, it -> {
         });
@@ -52,21 +136,102 @@ public class ScriptRuntime implements AutoCloseable {
             Source source,
             Consumer<Value> bindingOperator
     ) {
-        var _context = Context.newBuilder().engine(engine);
-        _context = configureContext().apply(_context).allowHostAccess(getHostAccess());
-        var gContext = _context.build();
+        return create(source, bindingOperator, defaultLimits);
+    }
+
+    public ScriptContext create(
+            Source source,
+            Consumer<Value> bindingOperator,
+            ContextLimits limits
+    ) {
+        return create(source, bindingOperator, limits, null);
+    }
+
+    /**
+     * Contexts with other limits than {@link #defaultLimits} or reading a bundle are not taken from the pool.
+     *
+     * @param bundle digest of the bundle the source is loaded from, the context can't read any other bundle.
+     */
+    public ScriptContext create(
+            Source source,
+            Consumer<Value> bindingOperator,
+            ContextLimits limits,
+            String bundle
+    ) {
+        var language = source.getLanguage();
+        var pool = contextPool;
+        var pooled = pool != null && bundle == null && POOLED_LANGUAGE.equals(language) && limits.equals(pooledLimits);
+        if (bundle != null) retainBundle(bundle);
+        Context gContext;
+        try {
+            gContext = pooled ? pool.take() : newContext(language, limits, bundle);
+        } catch (RuntimeException e) {
+            if (bundle != null) releaseBundle(bundle);
+            throw e;
+        }
+        var limited = limits.isLimited();
         return new ScriptContext(gContext, source) {
+            private boolean released;
+
             @Override
             protected void initializeBindings(Value binding) {
                 super.initializeBindings(binding);
-                initializeBinding(binding);
                 bindingOperator.accept(binding);
             }
+
+            @Override
+            public void beforeRequest() {
+                ScriptRuntime.this.beforeRequest();
+            }
+
+            @Override
+            public void resetLimits() {
+                if (limited) scriptContext.resetLimits();
+            }
+
+            @Override
+            public FileRegion locateFile(String path) throws IOException {
+                return ScriptRuntime.this.locateFile(bundle, path);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (bundle != null && !released) {
+                        released = true;
+                        releaseBundle(bundle);
+                    }
+                }
+            }
         };
     }
 
+    /**
+     * Called when a context reading the bundle is created, the bundle may be kept open until it's released.
+     */
+    protected void retainBundle(String bundle) {
+    }
+
+    /**
+     * Called once the context of a {@link #retainBundle(String) retained} bundle is closed.
+     */
+    protected void releaseBundle(String bundle) {
+    }
+
+    /**
+     * @return counters of the runtime, values should be serializable.
+     */
+    public Map<String, Object> getStats() {
+        var stats = new LinkedHashMap<String, Object>();
+        if (contextPool != null) stats.put("contextPool", contextPool.getStats());
+        return stats;
+    }
+
     @Override
     public void close() throws Exception {
+        if (contextPool != null) contextPool.close();
         engine.close(true);
     }
 }
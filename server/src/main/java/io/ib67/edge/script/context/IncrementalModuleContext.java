@@ -17,29 +17,107 @@
 
 package io.ib67.edge.script.context;
 
+import lombok.extern.log4j.Log4j2;
 import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.Value;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
+/**
+ * Modules can be added lazily, they're evaluated on the first {@link #getModule(String)} and memoized.
+ */
+@Log4j2
 public class IncrementalModuleContext extends ScriptContext {
     protected static final Source EMPTY = Source.create("js", "");
     protected final Map<String, Value> moduleExports = new HashMap<>();
+    protected final Map<String, List<Source>> lazyModules = new HashMap<>();
+    // exports of the replaced version of a reloaded module, kept until the new version evaluates
+    protected final Map<String, Value> previousExports = new HashMap<>();
 
     public IncrementalModuleContext(Context scriptContext) {
         super(scriptContext, EMPTY);
     }
 
+    protected final Map<String, Value> exportsView = new ExportsView();
+
+    /**
+     * @return a read-only view of all modules, lazy modules are evaluated when their value is accessed.
+     */
     public Map<String, Value> getModuleExports() {
-        return Collections.unmodifiableMap(moduleExports);
+        return exportsView;
     }
 
     @Override
     public Map<String, Value> getExportedMembers() {
-        return Collections.unmodifiableMap(moduleExports);
+        return getModuleExports();
+    }
+
+    /**
+     * @return names of both evaluated and lazy modules.
+     */
+    public Set<String> getModuleNames() {
+        if (lazyModules.isEmpty()) return Collections.unmodifiableSet(moduleExports.keySet());
+        var names = new HashSet<>(moduleExports.keySet());
+        names.addAll(lazyModules.keySet());
+        return names;
+    }
+
+    /**
+     * @return exports of the module, evaluating it if it's lazy. Null if the module doesn't exist.
+     */
+    public Value getModule(String module) {
+        var exports = moduleExports.get(module);
+        if (exports != null) return exports;
+        var sources = lazyModules.get(module);
+        if (sources == null) return null;
+        try {
+            for (Source source : sources) {
+                evalModule(module, source);
+            }
+        } catch (RuntimeException e) {
+            // drops partial exports, the module is evaluated from scratch on the next access.
+            moduleExports.remove(module);
+            var previous = previousExports.remove(module);
+            if (previous == null) throw e;
+            // a broken reload keeps serving the previous version until the module is replaced again.
+            log.error("Cannot evaluate the new version of module {}, keeping the previous one", module, e);
+            lazyModules.remove(module);
+            moduleExports.put(module, previous);
+            return previous;
+        }
+        lazyModules.remove(module);
+        previousExports.remove(module);
+        return moduleExports.get(module);
+    }
+
+    /**
+     * Replaces the module with sources to be evaluated on first access.
+     */
+    public void addLazyModule(String module, List<Source> sources) {
+        moduleExports.remove(module);
+        previousExports.remove(module);
+        lazyModules.put(module, List.copyOf(sources));
+    }
+
+    /**
+     * Same as {@link #addLazyModule(String, List)}, but if the new sources fail to evaluate,
+     * the exports of the current version are kept instead.
+     */
+    public void reloadModule(String module, List<Source> sources) {
+        var current = moduleExports.remove(module);
+        // a version which is never evaluated has no exports, the last evaluated one stays as the fallback.
+        if (current != null) previousExports.put(module, current);
+        lazyModules.put(module, List.copyOf(sources));
+    }
+
+    /**
+     * Forgets the exports of a module, so that it can be evaluated again from new sources.
+     */
+    public void removeModule(String module) {
+        moduleExports.remove(module);
+        lazyModules.remove(module);
+        previousExports.remove(module);
     }
 
     public Value evalModule(String module, Source source) {
@@ -54,4 +132,71 @@ public class IncrementalModuleContext extends ScriptContext {
         }
         return result;
     }
+
+    protected final class ExportsView extends AbstractMap<String, Value> {
+        @Override
+        public Value get(Object key) {
+            return key instanceof String module ? getModule(module) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return moduleExports.containsKey(key) || lazyModules.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return getModuleNames().size();
+        }
+
+        @Override
+        public Set<Entry<String, Value>> entrySet() {
+            var names = List.copyOf(getModuleNames());
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, Value>> iterator() {
+                    var iterator = names.iterator();
+                    return new Iterator<>() {
+                        @Override
+                        public boolean hasNext() {
+                            return iterator.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, Value> next() {
+                            return new LazyEntry(iterator.next());
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return names.size();
+                }
+            };
+        }
+    }
+
+    protected final class LazyEntry implements Map.Entry<String, Value> {
+        private final String module;
+
+        private LazyEntry(String module) {
+            this.module = module;
+        }
+
+        @Override
+        public String getKey() {
+            return module;
+        }
+
+        @Override
+        public Value getValue() {
+            return getModule(module);
+        }
+
+        @Override
+        public Value setValue(Value value) {
+            throw new UnsupportedOperationException();
+        }
+    }
 }
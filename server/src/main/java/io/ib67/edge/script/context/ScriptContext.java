@@ -19,6 +19,7 @@ package io.ib67.edge.script.context;
 
 import io.ib67.edge.api.script.ExportToScript;
 import io.ib67.edge.script.exception.ContextInitException;
+import io.ib67.edge.script.io.FileRegion;
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 import org.graalvm.polyglot.Context;
@@ -26,6 +27,7 @@ import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.Value;
 
 import java.io.IOException;
+import java.nio.file.NoSuchFileException;
 import java.util.*;
 
 @Log4j2
@@ -77,6 +79,29 @@ public class ScriptContext implements AutoCloseable {
         return scriptContext.eval(source);
     }
 
+    /**
+     * Called on the thread which is going to handle a request with this context, right before it.
+     */
+    public void beforeRequest() {
+    }
+
+    /**
+     * Resets the per-request limits, only to be called when no other request is running in this context,
+     * as the counters are shared by the whole context.
+     */
+    public void resetLimits() {
+    }
+
+    /**
+     * Doesn't touch the guest context, but may map the bundle or inflate the entry, so it's called off the event loop.
+     *
+     * @return a file of the bundle this context is loaded from, to be sent to clients.
+     * @see io.ib67.edge.script.ScriptRuntime#locateFile(String, String)
+     */
+    public FileRegion locateFile(String path) throws IOException {
+        throw new NoSuchFileException(path);
+    }
+
     public void onLifecycleEvent(String event) {
         if (!initialized) throw new IllegalStateException("Script context is not initialized");
         for (Runnable managedResource : lifecycleHandlers.getOrDefault(event, List.of())) {
@@ -0,0 +1,429 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge.script.io;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.graalvm.polyglot.io.FileSystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A read-only file system over a zip or tar archive, laid out under {@code root}.
+ * The archive is memory-mapped rather than read into the heap: tar entries and stored zip entries are served
+ * straight from the mapping, deflated zip entries are inflated the first time
+ * they are opened and kept as long as memory allows.
+ * <p>
+ * Sizes in the archive are declared by the uploader. Deflated entries are limited to {@link #MAX_INFLATED_BYTES}
+ * and rejected if they don't inflate to exactly the declared size, stored entries must fit into the archive.
+ */
+public class ArchiveFileSystem implements FileSystem, Closeable {
+    protected static final FileTime EPOCH = FileTime.fromMillis(0);
+    protected static final Entry DIRECTORY = new Entry(0, 0, 0, false);
+    public static final int MAX_INFLATED_BYTES = 32 * 1024 * 1024;
+    protected final Path root;
+    // null once closed
+    protected volatile ByteBuffer archive;
+    // relative paths without leading or trailing slashes, the root itself is an empty string.
+    protected final Map<String, Entry> entries;
+    // read-only, softly referenced so that they are dropped before the heap runs out.
+    protected final Cache<Entry, ByteBuffer> inflated = CacheBuilder.newBuilder().softValues().build();
+
+    protected ArchiveFileSystem(Path root, ByteBuffer archive, Map<String, Entry> entries) {
+        this.root = root.toAbsolutePath().normalize();
+        this.archive = archive;
+        this.entries = entries;
+    }
+
+    /**
+     * @param root only used as a name, it doesn't need to exist anywhere.
+     */
+    public static ArchiveFileSystem open(Path archive, Path root) throws IOException {
+        ByteBuffer mapped;
+        try (var channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Archive is too large: " + archive);
+            }
+            // the mapping stays valid after the channel is closed.
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        var entries = new HashMap<String, Entry>();
+        entries.put("", DIRECTORY);
+        if (isTar(mapped)) {
+            readTar(mapped, entries);
+        } else if (isZip(mapped)) {
+            readZip(mapped, entries);
+        } else {
+            throw new IOException("Unsupported archive format: " + archive);
+        }
+        return new ArchiveFileSystem(root, mapped, Map.copyOf(entries));
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Drops the mapping and the inflated entries, reading afterwards fails. Java 21 can't unmap a file eagerly,
+     * the mapping is released once buffers handed out by {@link #read(Path)} are collected as well.
+     */
+    @Override
+    public void close() {
+        archive = null;
+        inflated.invalidateAll();
+    }
+
+    protected ByteBuffer mapping() {
+        var archive = this.archive;
+        if (archive == null) throw new ClosedFileSystemException();
+        return archive;
+    }
+
+    /**
+     * @param length size of the content, {@code compressedLength} bytes are stored in the archive.
+     */
+    protected record Entry(int offset, int length, int compressedLength, boolean deflated) {
+    }
+
+    private static boolean isTar(ByteBuffer archive) {
+        if (archive.limit() < 512) return false;
+        var magic = new byte[5];
+        archive.get(257, magic);
+        return Arrays.equals(magic, "ustar".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static boolean isZip(ByteBuffer archive) {
+        return archive.limit() >= 22 && archive.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt(0) == 0x04034b50
+                || findEndOfCentralDirectory(archive) == 0;
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer archive) {
+        var buffer = archive.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        var lowest = Math.max(0, buffer.limit() - 22 - 0xFFFF);
+        for (int i = buffer.limit() - 22; i >= lowest; i--) {
+            if (buffer.getInt(i) == 0x06054b50) return i;
+        }
+        return -1;
+    }
+
+    private static void readZip(ByteBuffer archive, Map<String, Entry> entries) throws IOException {
+        var buffer = archive.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        var end = findEndOfCentralDirectory(buffer);
+        if (end == -1) throw new IOException("Cannot find the central directory of zip");
+        var count = Short.toUnsignedInt(buffer.getShort(end + 10));
+        // offsets are unsigned and untrusted, they are kept in longs so that crafted values can't wrap around.
+        var position = Integer.toUnsignedLong(buffer.getInt(end + 16));
+        for (int i = 0; i < count; i++) {
+            if (position + 46 > buffer.limit() || buffer.getInt((int) position) != 0x02014b50) {
+                throw new IOException("Corrupted central directory at " + position);
+            }
+            var header = (int) position;
+            var flags = Short.toUnsignedInt(buffer.getShort(header + 8));
+            var method = Short.toUnsignedInt(buffer.getShort(header + 10));
+            var compressedLength = Integer.toUnsignedLong(buffer.getInt(header + 20));
+            var length = Integer.toUnsignedLong(buffer.getInt(header + 24));
+            var nameLength = Short.toUnsignedInt(buffer.getShort(header + 28));
+            var extraLength = Short.toUnsignedInt(buffer.getShort(header + 30));
+            var commentLength = Short.toUnsignedInt(buffer.getShort(header + 32));
+            var localHeader = Integer.toUnsignedLong(buffer.getInt(header + 42));
+            if (position + 46 + nameLength > buffer.limit()) {
+                throw new IOException("Corrupted central directory at " + position);
+            }
+            var name = readName(buffer, header + 46, nameLength);
+            position += 46L + nameLength + extraLength + commentLength;
+            if (compressedLength == 0xFFFFFFFFL || length == 0xFFFFFFFFL || localHeader == 0xFFFFFFFFL) {
+                throw new IOException("Zip64 is not supported: " + name);
+            }
+            if ((flags & 1) != 0) throw new IOException("Encrypted entries are not supported: " + name);
+            if (name.endsWith("/")) {
+                addDirectory(entries, normalize(name));
+                continue;
+            }
+            if (method != 0 && method != 8) {
+                throw new IOException("Unsupported compression method " + method + ": " + name);
+            }
+            if (localHeader + 30 > buffer.limit() || buffer.getInt((int) localHeader) != 0x04034b50) {
+                throw new IOException("Corrupted local header: " + name);
+            }
+            var offset = localHeader + 30
+                    + Short.toUnsignedInt(buffer.getShort((int) localHeader + 26))
+                    + Short.toUnsignedInt(buffer.getShort((int) localHeader + 28));
+            if (length > Integer.MAX_VALUE || offset + compressedLength > buffer.limit()) {
+                throw new IOException("Entry exceeds the archive: " + name);
+            }
+            // stored entries are located by their size, which must match the range they take in the archive.
+            if (method == 0 && length != compressedLength) {
+                throw new IOException("Size of a stored entry differs from its compressed size: " + name);
+            }
+            if (method == 8 && length > MAX_INFLATED_BYTES) {
+                throw new IOException("Entry is too large to be inflated: " + name);
+            }
+            addFile(entries, normalize(name), new Entry((int) offset, (int) length, (int) compressedLength, method == 8));
+        }
+    }
+
+    private static void readTar(ByteBuffer archive, Map<String, Entry> entries) throws IOException {
+        var position = 0L;
+        while (position + 512 <= archive.limit()) {
+            var header = (int) position;
+            if (archive.get(header) == 0) break; // the end-of-archive marker
+            var name = readTarString(archive, header, 100);
+            var prefix = readTarString(archive, header + 345, 155);
+            if (!prefix.isEmpty()) name = prefix + "/" + name;
+            var size = readOctal(archive, header + 124, 12);
+            var type = archive.get(header + 156);
+            var offset = position + 512;
+            if (size < 0 || offset + size > archive.limit()) {
+                throw new IOException("Entry exceeds the archive: " + name);
+            }
+            if (type == '5') {
+                addDirectory(entries, normalize(name));
+            } else if (type == '0' || type == 0) {
+                addFile(entries, normalize(name), new Entry((int) offset, (int) size, (int) size, false));
+            }
+            // links and extended headers are skipped.
+            position = offset + ((size + 511) & ~511L);
+        }
+    }
+
+    private static String readTarString(ByteBuffer archive, int offset, int maxLength) {
+        var length = 0;
+        while (length < maxLength && archive.get(offset + length) != 0) length++;
+        return readName(archive, offset, length);
+    }
+
+    private static long readOctal(ByteBuffer archive, int offset, int maxLength) throws IOException {
+        var value = 0L;
+        for (int i = 0; i < maxLength; i++) {
+            var c = archive.get(offset + i);
+            if (c == 0 || c == ' ') {
+                if (value == 0 && c == ' ') continue;
+                break;
+            }
+            if (c < '0' || c > '7') throw new IOException("Invalid size in tar header at " + offset);
+            value = value * 8 + (c - '0');
+        }
+        return value;
+    }
+
+    private static String readName(ByteBuffer buffer, int offset, int length) {
+        var bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Strips leading "./" and slashes, and rejects names escaping the archive.
+     */
+    private static String normalize(String name) throws IOException {
+        var segments = new ArrayList<String>();
+        for (String segment : name.split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) continue;
+            if (segment.equals("..")) throw new IOException("Entry escapes the archive: " + name);
+            segments.add(segment);
+        }
+        return String.join("/", segments);
+    }
+
+    private static void addFile(Map<String, Entry> entries, String name, Entry entry) throws IOException {
+        if (name.isEmpty() || entries.get(name) == DIRECTORY) throw new IOException("Invalid entry: " + name);
+        entries.put(name, entry);
+        var slash = name.lastIndexOf('/');
+        if (slash != -1) addDirectory(entries, name.substring(0, slash));
+    }
+
+    private static void addDirectory(Map<String, Entry> entries, String name) {
+        while (!name.isEmpty() && entries.putIfAbsent(name, DIRECTORY) == null) {
+            var slash = name.lastIndexOf('/');
+            name = slash == -1 ? "" : name.substring(0, slash);
+        }
+    }
+
+    /**
+     * @return the relative name inside the archive, or null if the path is outside of it.
+     */
+    protected String relativize(Path path) {
+        path = toAbsolutePath(path).normalize();
+        if (!path.startsWith(root)) return null;
+        var relative = root.relativize(path).toString();
+        return relative.replace(path.getFileSystem().getSeparator(), "/");
+    }
+
+    protected Entry lookupOrThrow(Path path) throws NoSuchFileException {
+        var name = relativize(path);
+        var entry = name == null ? null : entries.get(name);
+        if (entry == null) throw new NoSuchFileException(path.toString());
+        return entry;
+    }
+
+    /**
+     * @return a read-only view of the content, either of the mapping or of the inflated entry.
+     */
+    public ByteBuffer read(Path path) throws IOException {
+        var entry = lookupOrThrow(path);
+        if (entry == DIRECTORY) throw new FileSystemException(path.toString(), null, "is a directory");
+        var stored = mapping().slice(entry.offset(), entry.compressedLength()).asReadOnlyBuffer();
+        if (!entry.deflated()) return stored;
+        var content = inflated.getIfPresent(entry);
+        if (content == null) {
+            // concurrent readers may inflate the same entry twice, which is harmless.
+            content = inflate(path, entry, stored).asReadOnlyBuffer();
+            inflated.put(entry, content);
+        }
+        return content.duplicate();
+    }
+
+    private static ByteBuffer inflate(Path path, Entry entry, ByteBuffer stored) throws IOException {
+        var inflater = new Inflater(true);
+        try {
+            inflater.setInput(stored);
+            var content = ByteBuffer.allocate(entry.length());
+            while (content.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(content) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+            if (content.hasRemaining()) throw new IOException("Entry is smaller than declared: " + path);
+            // the end of the stream may not be consumed yet, anything but the end means there's more data.
+            if (!inflater.finished() && (inflater.inflate(new byte[1]) != 0 || !inflater.finished())) {
+                throw new IOException("Entry is larger than declared: " + path);
+            }
+            return content.flip();
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted entry: " + path, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @param archiveFile the archive this file system is opened from.
+     * @return a range of the archive for uncompressed entries, or the inflated content otherwise.
+     */
+    public FileRegion locate(Path path, Path archiveFile) throws IOException {
+        var entry = lookupOrThrow(path);
+        if (entry == DIRECTORY) throw new FileSystemException(path.toString(), null, "is a directory");
+        var name = path.getFileName().toString();
+        if (entry.deflated()) return FileRegion.of(name, read(path));
+        // the range is sent from the file, but a closed archive doesn't serve it either.
+        mapping();
+        return FileRegion.of(name, archiveFile, entry.offset(), entry.length());
+    }
+
+    @Override
+    public Path parsePath(URI uri) {
+        return root.getFileSystem().provider().getPath(uri);
+    }
+
+    @Override
+    public Path parsePath(String path) {
+        return root.getFileSystem().getPath(path);
+    }
+
+    @Override
+    public void checkAccess(Path path, Set<? extends AccessMode> modes, LinkOption... linkOptions) throws IOException {
+        lookupOrThrow(path);
+        if (modes.contains(AccessMode.WRITE)) throw new AccessDeniedException(path.toString(), null, "read-only");
+    }
+
+    @Override
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void delete(Path path) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
+        if (options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND)) {
+            throw new ReadOnlyFileSystemException();
+        }
+        return new ReadOnlyByteChannel(read(path));
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter) throws IOException {
+        if (lookupOrThrow(dir) != DIRECTORY) throw new NotDirectoryException(dir.toString());
+        var name = relativize(dir);
+        var prefix = name.isEmpty() ? "" : name + "/";
+        var children = new ArrayList<Path>();
+        for (var child : entries.keySet()) {
+            if (child.length() > prefix.length() && child.startsWith(prefix)
+                    && child.indexOf('/', prefix.length()) == -1) {
+                var path = dir.resolve(child.substring(prefix.length()));
+                if (filter.accept(path)) children.add(path);
+            }
+        }
+        return new DirectoryStream<>() {
+            @Override
+            public Iterator<Path> iterator() {
+                return children.iterator();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public Path toAbsolutePath(Path path) {
+        return path.isAbsolute() ? path : root.resolve(path);
+    }
+
+    @Override
+    public Path toRealPath(Path path, LinkOption... linkOptions) throws IOException {
+        var realPath = toAbsolutePath(path).normalize();
+        lookupOrThrow(realPath);
+        return realPath;
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) throws IOException {
+        var entry = lookupOrThrow(path);
+        var directory = entry == DIRECTORY;
+        var result = new HashMap<String, Object>();
+        result.put("isRegularFile", !directory);
+        result.put("isDirectory", directory);
+        result.put("isSymbolicLink", false);
+        result.put("isOther", false);
+        result.put("size", (long) entry.length());
+        result.put("lastModifiedTime", EPOCH);
+        result.put("lastAccessTime", EPOCH);
+        result.put("creationTime", EPOCH);
+        result.put("fileKey", null);
+        return result;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge.script.io;
+
+import org.graalvm.polyglot.io.FileSystem;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.FileAttribute;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Serves deployment bundles as {@code <root>/<digest>/...} on top of another file system, which handles
+ * every other path. Bundles are named by the SHA-256 of the archive, an archive is mapped on first access
+ * and stays mapped while contexts {@link #retain(String) use} it, so every context shares the same pages.
+ * <p>
+ * Guests get a {@link #scoped(String) scoped} view, which only serves the bundle of their own deployment.
+ */
+public class BundleFileSystem extends DelegatedFileSystem {
+    protected final Path root;
+    protected final Function<String, Path> archives;
+    protected final Map<String, ArchiveFileSystem> bundles;
+    // count of contexts using a bundle, guarded by itself.
+    protected final Map<String, Integer> users;
+    // the only digest served by a scoped view, null if the view serves no bundle at all.
+    protected final String scope;
+    protected final boolean scoped;
+
+    /**
+     * @param root     only used as a name, it doesn't need to exist anywhere.
+     * @param archives locates the archive file of a digest, or returns null if bundles are disabled.
+     */
+    public BundleFileSystem(FileSystem delegatedFS, Path root, Function<String, Path> archives) {
+        super(delegatedFS);
+        this.root = root.toAbsolutePath().normalize();
+        this.archives = archives;
+        this.bundles = new ConcurrentHashMap<>();
+        this.users = new HashMap<>();
+        this.scope = null;
+        this.scoped = false;
+    }
+
+    protected BundleFileSystem(BundleFileSystem parent, String scope) {
+        super(parent.delegatedFS);
+        this.root = parent.root;
+        this.archives = parent.archives;
+        this.bundles = parent.bundles;
+        this.users = parent.users;
+        this.scope = scope;
+        this.scoped = true;
+    }
+
+    /**
+     * @param digest the bundle which can be accessed, or null to deny every bundle.
+     * @return a view sharing the mapped archives with this file system.
+     */
+    public BundleFileSystem scoped(String digest) {
+        return new BundleFileSystem(this, digest);
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public ArchiveFileSystem open(String digest) throws IOException {
+        if (digest.length() != 64 || scoped && !digest.equals(scope)) throw new NoSuchFileException(digest);
+        try {
+            HexFormat.of().parseHex(digest);
+        } catch (IllegalArgumentException e) {
+            throw new NoSuchFileException(digest);
+        }
+        try {
+            return bundles.computeIfAbsent(digest, it -> {
+                var archive = archives.apply(it);
+                if (archive == null || Files.notExists(archive)) return null;
+                try {
+                    return ArchiveFileSystem.open(archive, root.resolve(it));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Keeps the bundle mapped for a context reading it, until it's {@link #release(String) released}.
+     */
+    public void retain(String digest) {
+        synchronized (users) {
+            users.merge(digest, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Closes the archive once no context reads the bundle anymore, it's mapped again if it's opened later.
+     */
+    public void release(String digest) {
+        ArchiveFileSystem unused = null;
+        synchronized (users) {
+            if (users.computeIfPresent(digest, (it, count) -> count == 1 ? null : count - 1) == null) {
+                unused = bundles.remove(digest);
+            }
+        }
+        if (unused != null) unused.close();
+    }
+
+    /**
+     * @return the bundle containing the path, or the delegated file system if the path is not in any bundle.
+     */
+    protected FileSystem select(Path path) throws IOException {
+        path = toAbsolutePath(path).normalize();
+        if (!path.startsWith(root) || path.equals(root)) return delegatedFS;
+        var digest = root.relativize(path).getName(0).toString();
+        var bundle = open(digest);
+        if (bundle == null) throw new NoSuchFileException(path.toString());
+        return bundle;
+    }
+
+    /**
+     * Locates a file in a bundle for sending it to clients. Paths outside of bundles are never served.
+     */
+    public FileRegion locate(Path path) throws IOException {
+        path = toAbsolutePath(path).normalize();
+        if (!path.startsWith(root) || path.getNameCount() <= root.getNameCount() + 1) {
+            throw new NoSuchFileException(path.toString());
+        }
+        var digest = root.relativize(path).getName(0).toString();
+        var bundle = open(digest);
+        if (bundle == null) throw new NoSuchFileException(path.toString());
+        return bundle.locate(path, archives.apply(digest));
+    }
+
+    @Override
+    public void checkAccess(Path path, Set<? extends AccessMode> modes, LinkOption... linkOptions) throws IOException {
+        select(path).checkAccess(path, modes, linkOptions);
+    }
+
+    @Override
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) throws IOException {
+        select(dir).createDirectory(dir, attrs);
+    }
+
+    @Override
+    public void delete(Path path) throws IOException {
+        select(path).delete(path);
+    }
+
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
+        return select(path).newByteChannel(path, options, attrs);
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter) throws IOException {
+        return select(dir).newDirectoryStream(dir, filter);
+    }
+
+    @Override
+    public Path toRealPath(Path path, LinkOption... linkOptions) throws IOException {
+        return select(path).toRealPath(path, linkOptions);
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) throws IOException {
+        return select(path).readAttributes(path, attributes, options);
+    }
+}
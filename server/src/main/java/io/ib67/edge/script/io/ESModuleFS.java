@@ -29,11 +29,20 @@ import java.util.function.Supplier;
  */
 public class ESModuleFS extends DelegatedFileSystem {
     protected final Supplier<ModuleLocator> locator;
+    protected final Supplier<ResolutionCache> resolutionCache;
 
     // the underlying implementation of this library locator can be a thread local.
     public ESModuleFS(FileSystem delegatedFS, Supplier<ModuleLocator> locator) {
+        this(delegatedFS, locator, () -> null);
+    }
+
+    /**
+     * @param resolutionCache supplies the cache of current thread, or null to disable caching.
+     */
+    public ESModuleFS(FileSystem delegatedFS, Supplier<ModuleLocator> locator, Supplier<ResolutionCache> resolutionCache) {
         super(delegatedFS);
         this.locator = locator;
+        this.resolutionCache = resolutionCache;
     }
 
     @Override
@@ -49,32 +58,44 @@ public class ESModuleFS extends DelegatedFileSystem {
         // we assume that this parsePath method will run on the same thread the script run.
         var locator = this.locator.get();
         if (!path.isEmpty() && path.charAt(0) == '@') {
-            var moduleName = path.substring(1);
-            if (moduleName.isEmpty()) {
-                throw new IllegalArgumentException("module name cannot be empty");
-            }
-            path = path.substring(1);
+            var cache = resolutionCache.get();
+            if (cache == null) return resolveModule(locator, path);
+            var generation = locator.generation();
+            var resolved = cache.get(path, generation);
+            if (resolved != null) return resolved;
+            var begin = System.nanoTime();
+            resolved = resolveModule(locator, path);
+            cache.put(path, resolved, System.nanoTime() - begin);
+            return resolved;
+        }
+        return super.parsePath(path);
+    }
 
-            var firstSlash = path.indexOf('/');
-            if (firstSlash == -1) {
-                var root = locator.locateRoot(path);
-                if (root == null) {
-                    throw new IllegalArgumentException("cannot find root for module "+path);
-                }
-                return root;
-            }
-            moduleName = path.substring(0, firstSlash);
-            var finalPath = locator.locateModule(moduleName, path.substring(firstSlash + 1));
-            if (finalPath == null) {
-                throw new IllegalArgumentException("path '" + path.substring(firstSlash + 1) + "' in module " + moduleName + " not found");
-            }
-            var moduleRoot = locator.locateRoot(moduleName);
-            finalPath = finalPath.normalize();
-            if (!finalPath.startsWith(moduleRoot)) {
-                throw new IllegalArgumentException("invalid module path: " + finalPath);
+    protected Path resolveModule(ModuleLocator locator, String path) {
+        var moduleName = path.substring(1);
+        if (moduleName.isEmpty()) {
+            throw new IllegalArgumentException("module name cannot be empty");
+        }
+        path = path.substring(1);
+
+        var firstSlash = path.indexOf('/');
+        if (firstSlash == -1) {
+            var root = locator.locateRoot(path);
+            if (root == null) {
+                throw new IllegalArgumentException("cannot find root for module "+path);
             }
-            return finalPath;
+            return root;
         }
-        return super.parsePath(path);
+        moduleName = path.substring(0, firstSlash);
+        var finalPath = locator.locateModule(moduleName, path.substring(firstSlash + 1));
+        if (finalPath == null) {
+            throw new IllegalArgumentException("path '" + path.substring(firstSlash + 1) + "' in module " + moduleName + " not found");
+        }
+        var moduleRoot = locator.locateRoot(moduleName);
+        finalPath = finalPath.normalize();
+        if (!finalPath.startsWith(moduleRoot)) {
+            throw new IllegalArgumentException("invalid module path: " + finalPath);
+        }
+        return finalPath;
     }
 }
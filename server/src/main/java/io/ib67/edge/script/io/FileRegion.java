@@ -0,0 +1,44 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge.script.io;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * A file to be sent to clients. It's either a range of a host file, which can be transferred by sendfile(2)
+ * without entering the JVM, or a content already in memory, e.g. an inflated zip entry.
+ *
+ * @param name    name of the file seen by scripts, used to guess the content type.
+ * @param file    the host file, or null if the content is in memory.
+ * @param content the content, or null if it's in a host file.
+ */
+public record FileRegion(String name, Path file, long offset, long length, ByteBuffer content) {
+    public static FileRegion of(String name, Path file, long offset, long length) {
+        return new FileRegion(name, file, offset, length, null);
+    }
+
+    public static FileRegion of(String name, ByteBuffer content) {
+        return new FileRegion(name, null, 0, content.remaining(), content);
+    }
+
+    public boolean inMemory() {
+        return file == null;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package io.ib67.edge.script.io;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded LRU cache from import specifiers to resolved paths. It is not thread-safe and is meant to be
+ * kept per thread, the statistics can be shared though.
+ * Entries are dropped when the generation of the locator changes.
+ */
+public class ResolutionCache {
+    protected final Map<String, Path> entries;
+    protected final Stats stats;
+    protected long generation = Long.MIN_VALUE;
+
+    public ResolutionCache(int capacity, Stats stats) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Path> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.stats = stats;
+    }
+
+    public Path get(String specifier, long generation) {
+        if (this.generation != generation) {
+            entries.clear();
+            this.generation = generation;
+        }
+        var path = entries.get(specifier);
+        if (path != null) stats.hits.increment();
+        return path;
+    }
+
+    /**
+     * Should be called after a miss of {@link #get(String, long)} with the same generation.
+     */
+    public void put(String specifier, Path path, long resolveNanos) {
+        stats.misses.increment();
+        stats.resolveNanos.add(resolveNanos);
+        entries.put(specifier, path);
+    }
+
+    public static class Stats {
+        protected final LongAdder hits = new LongAdder();
+        protected final LongAdder misses = new LongAdder();
+        protected final LongAdder resolveNanos = new LongAdder();
+
+        public Snapshot snapshot() {
+            var misses = this.misses.sum();
+            return new Snapshot(hits.sum(), misses, misses == 0 ? 0 : resolveNanos.sum() / misses);
+        }
+
+        /**
+         * @param averageResolveNanos average time spent on resolving a missed specifier.
+         */
+        public record Snapshot(long hits, long misses, long averageResolveNanos) {
+        }
+    }
+}
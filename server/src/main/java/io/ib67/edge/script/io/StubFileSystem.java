@@ -0,0 +1,191 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package io.ib67.edge.script.io;
+
+import org.graalvm.polyglot.io.FileSystem;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * A read-only file system serving pre-generated library stubs from memory.
+ * Stubs are laid out as {@code <root>/<version>/<module>/_index.mjs}, where the version must match the
+ * snapshot supplied for the current thread. Nothing else exists in this file system.
+ */
+public class StubFileSystem implements FileSystem {
+    public static final String STUB_FILE = "_index.mjs";
+    protected static final FileTime EPOCH = FileTime.fromMillis(0);
+    protected static final byte[] DIRECTORY = new byte[0];
+    protected final Path root;
+    protected final Supplier<? extends Stubs> stubs;
+
+    /**
+     * @param root  only used as a name, it doesn't need to exist anywhere.
+     * @param stubs supplies the snapshot of current thread.
+     */
+    public StubFileSystem(Path root, Supplier<? extends Stubs> stubs) {
+        this.root = root.toAbsolutePath().normalize();
+        this.stubs = stubs;
+    }
+
+    public interface Stubs {
+        long getVersion();
+
+        /**
+         * @return content of the stub, or null if there is no such module.
+         */
+        byte[] getStub(String module);
+
+        /**
+         * @return names of the modules which have a stub.
+         */
+        Set<String> getModules();
+    }
+
+    @Override
+    public Path parsePath(URI uri) {
+        return root.getFileSystem().provider().getPath(uri);
+    }
+
+    @Override
+    public Path parsePath(String path) {
+        return root.getFileSystem().getPath(path);
+    }
+
+    /**
+     * @return the stub, an empty array for directories or null if the path doesn't exist.
+     */
+    protected byte[] lookup(Path path) {
+        path = toAbsolutePath(path).normalize();
+        if (!path.startsWith(root)) return null;
+        var relative = root.relativize(path);
+        var names = relative.toString().isEmpty() ? 0 : relative.getNameCount();
+        if (names == 0) return DIRECTORY;
+        var snapshot = stubs.get();
+        if (!relative.getName(0).toString().equals(String.valueOf(snapshot.getVersion()))) return null;
+        if (names == 1) return DIRECTORY;
+        var stub = snapshot.getStub(relative.getName(1).toString());
+        if (stub == null) return null;
+        if (names == 2) return DIRECTORY;
+        if (names == 3 && relative.getName(2).toString().equals(STUB_FILE)) return stub;
+        return null;
+    }
+
+    protected byte[] lookupOrThrow(Path path) throws NoSuchFileException {
+        var content = lookup(path);
+        if (content == null) throw new NoSuchFileException(path.toString());
+        return content;
+    }
+
+    @Override
+    public void checkAccess(Path path, Set<? extends AccessMode> modes, LinkOption... linkOptions) throws IOException {
+        lookupOrThrow(path);
+        if (modes.contains(AccessMode.WRITE)) throw new AccessDeniedException(path.toString(), null, "read-only");
+    }
+
+    @Override
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void delete(Path path) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
+        if (options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND)) {
+            throw new ReadOnlyFileSystemException();
+        }
+        var content = lookupOrThrow(path);
+        if (content == DIRECTORY) throw new FileSystemException(path.toString(), null, "is a directory");
+        return new ReadOnlyByteChannel(ByteBuffer.wrap(content));
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter) throws IOException {
+        if (lookupOrThrow(dir) != DIRECTORY) throw new NotDirectoryException(dir.toString());
+        var absolute = toAbsolutePath(dir).normalize();
+        var relative = root.relativize(absolute);
+        var names = relative.toString().isEmpty() ? 0 : relative.getNameCount();
+        // children of the directory as laid out by lookup, snapshots of other versions are invisible.
+        var snapshot = stubs.get();
+        var children = switch (names) {
+            case 0 -> List.of(String.valueOf(snapshot.getVersion()));
+            case 1 -> snapshot.getModules();
+            default -> List.of(STUB_FILE);
+        };
+        var result = new ArrayList<Path>();
+        for (var child : children) {
+            var path = dir.resolve(child);
+            if (filter.accept(path)) result.add(path);
+        }
+        return new DirectoryStream<>() {
+            @Override
+            public Iterator<Path> iterator() {
+                return result.iterator();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public Path toAbsolutePath(Path path) {
+        return path.isAbsolute() ? path : root.resolve(path);
+    }
+
+    @Override
+    public Path toRealPath(Path path, LinkOption... linkOptions) throws IOException {
+        var realPath = toAbsolutePath(path).normalize();
+        lookupOrThrow(realPath);
+        return realPath;
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) throws IOException {
+        var content = lookupOrThrow(path);
+        var directory = content == DIRECTORY;
+        var result = new HashMap<String, Object>();
+        result.put("isRegularFile", !directory);
+        result.put("isDirectory", directory);
+        result.put("isSymbolicLink", false);
+        result.put("isOther", false);
+        result.put("size", (long) content.length);
+        result.put("lastModifiedTime", EPOCH);
+        result.put("lastAccessTime", EPOCH);
+        result.put("creationTime", EPOCH);
+        result.put("fileKey", null);
+        return result;
+    }
+}
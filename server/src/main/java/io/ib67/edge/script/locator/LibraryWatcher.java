@@ -0,0 +1,121 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package io.ib67.edge.script.locator;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches a library root laid out like {@link DirectoryModuleLocator}, and reports the names of changed libraries.
+ * Events are collected until the directory is quiet for a while, so that copying a library triggers one reload.
+ */
+@Log4j2
+public class LibraryWatcher implements AutoCloseable {
+    protected static final long QUIET_PERIOD_MILLIS = 200;
+    protected final Path root;
+    protected final WatchService watchService;
+    protected final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    protected final Consumer<Set<String>> listener;
+    protected final Thread thread;
+    protected volatile boolean closed;
+
+    public LibraryWatcher(Path root, ThreadFactory threadFactory, Consumer<Set<String>> listener) throws IOException {
+        this.root = root;
+        this.listener = listener;
+        this.watchService = root.getFileSystem().newWatchService();
+        registerAll(root);
+        this.thread = threadFactory.newThread(this::run);
+        thread.start();
+    }
+
+    // WatchService isn't recursive, every directory needs to be registered.
+    protected void registerAll(Path dir) throws IOException {
+        try (var dirs = Files.walk(dir, 32, FileVisitOption.FOLLOW_LINKS)) {
+            for (var it : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator) {
+                watchedDirs.put(it.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), it);
+            }
+        }
+    }
+
+    protected void run() {
+        var changed = new HashSet<String>();
+        while (!closed) {
+            try {
+                var key = changed.isEmpty()
+                        ? watchService.take()
+                        : watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    notifyListener(Set.copyOf(changed));
+                    changed.clear();
+                    continue;
+                }
+                var dir = watchedDirs.get(key);
+                for (var event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW || dir == null) {
+                        changed.addAll(listLibraries());
+                        continue;
+                    }
+                    var path = dir.resolve((Path) event.context());
+                    var relative = root.relativize(path);
+                    if (relative.getNameCount() == 0) continue;
+                    changed.add(relative.getName(0).toString());
+                    if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) registerAll(path);
+                }
+                if (!key.reset()) watchedDirs.remove(key);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                break;
+            } catch (Exception e) {
+                log.error("Error occurred when watching libraries under {}", root, e);
+            }
+        }
+    }
+
+    protected void notifyListener(Set<String> changed) {
+        log.info("Libraries {} have been changed", changed);
+        try {
+            listener.accept(changed);
+        } catch (Exception e) {
+            log.error("Error occurred when reloading libraries {}", changed, e);
+        }
+    }
+
+    protected Set<String> listLibraries() throws IOException {
+        try (var files = Files.list(root)) {
+            var names = new HashSet<String>();
+            files.forEach(it -> names.add(it.getFileName().toString()));
+            return names;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+    }
+}
@@ -32,4 +32,11 @@ public interface ModuleLocator {
      * @throws IllegalArgumentException if it cannot find the file
      */
     Path locateModule(String module, String file);
+
+    /**
+     * Changes whenever a previous result of this locator may become stale, so callers can cache the results.
+     */
+    default long generation() {
+        return 0;
+    }
 }
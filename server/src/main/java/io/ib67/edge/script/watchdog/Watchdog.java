@@ -17,32 +17,176 @@
 
 package io.ib67.edge.script.watchdog;
 
-import lombok.RequiredArgsConstructor;
+import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 import org.graalvm.polyglot.Context;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.time.Duration;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.lang.Math.max;
 
 /**
  * Watchdog will bark if a program exceed its time limit in watchdog's execution scope.
+ * <p>
+ * Each guarded context owns a {@link Slot} holding a deadline. Arming and disarming a slot are plain
+ * (release) writes, a single ticker thread scans all the slots and interrupts the overdue contexts.
+ * The ticker also maintains a coarse clock so that arming doesn't even need to call {@link System#nanoTime()}.
+ * <p>
+ * An overdue slot stays armed until it's disarmed by its owner, so it's interrupted again on every tick.
+ * A context which doesn't respond to an interruption in time, e.g. stuck in host code, is cancelled on the next
+ * tick instead, it can't be used anymore and has to be replaced.
  */
-@RequiredArgsConstructor
 @Log4j2
-public class Watchdog {
-    protected final ScheduledExecutorService watchdogExecutor;
+public class Watchdog implements AutoCloseable {
+    protected static final long IDLE = 0;
+    protected static final long MIN_TICK_NANOS = Duration.ofMillis(1).toNanos();
+    protected final List<Slot> slots = new CopyOnWriteArrayList<>();
+    @Getter
     protected final Duration interruptionTimeout;
+    protected final long timeoutNanos;
+    protected final long tickNanos;
+    protected final ThreadFactory threadFactory;
+    protected final Thread ticker;
+    protected volatile long clock;
+    protected volatile boolean closed;
+
+    /**
+     * @param threadFactory       creates the ticker thread, which is started immediately.
+     * @param interruptionTimeout how long an armed context is allowed to run.
+     */
+    public Watchdog(ThreadFactory threadFactory, Duration interruptionTimeout) {
+        this.interruptionTimeout = interruptionTimeout;
+        this.timeoutNanos = interruptionTimeout.toNanos();
+        this.tickNanos = max(timeoutNanos / 10, MIN_TICK_NANOS);
+        this.clock = System.nanoTime();
+        this.threadFactory = threadFactory;
+        this.ticker = threadFactory.newThread(this::tick);
+        ticker.start();
+    }
+
+    /**
+     * Registers a context to the watchdog. The returned slot is disarmed.
+     * Slots should be closed along with the context, the watchdog won't do that for you.
+     */
+    public Slot register(Context context) {
+        if (closed) throw new IllegalStateException("Watchdog has been closed");
+        var slot = new Slot(context);
+        slots.add(slot);
+        return slot;
+    }
+
+    protected void tick() {
+        while (!closed) {
+            LockSupport.parkNanos(this, tickNanos);
+            var now = System.nanoTime();
+            clock = now;
+            for (Slot slot : slots) {
+                var deadline = slot.deadline;
+                if (deadline == IDLE || now - deadline < 0 || slot.cancelled) continue;
+                // interrupting a context which has stopped already does nothing, so the slot is left armed
+                // for its owner to disarm. Only the deadline we have seen is escalated.
+                if (slot.ignored == deadline) {
+                    slot.cancelled = true;
+                    cancel(slot.context);
+                } else if (!bark(slot.context)) {
+                    slot.ignored = deadline;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if the context is still running after a tick.
+     */
+    protected boolean bark(Context context) {
+        try {
+            // don't hang the ticker, others may be overdue as well.
+            context.interrupt(Duration.ofNanos(tickNanos));
+            return true;
+        } catch (TimeoutException ex) {
+            log.warn("Context {} didn't respond to the interruption in time", context);
+            return false;
+        } catch (Exception ex) {
+            log.error("Error while interrupting context {}", context, ex);
+            return true;
+        }
+    }
 
-    public Runnable setTimeout(Context context) {
-        var handle = watchdogExecutor.schedule(() -> {
-            try{
-                context.interrupt(Duration.ZERO);
-            }catch (TimeoutException ex){
-                log.error("Error while interrupting context {}", context, ex);
+    protected void cancel(Context context) {
+        log.warn("Context {} ignored the interruption, cancelling it", context);
+        // closing waits for the context to stop, which may take as long as the interruption did.
+        threadFactory.newThread(() -> {
+            try {
+                context.close(true);
+            } catch (Exception ex) {
+                log.error("Error while cancelling context {}", context, ex);
             }
-        }, interruptionTimeout.toMillis(), TimeUnit.MILLISECONDS);
-        return () -> handle.cancel(true);
+        }).start();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(ticker);
+        slots.clear();
+    }
+
+    public final class Slot implements AutoCloseable {
+        private static final VarHandle DEADLINE;
+
+        static {
+            try {
+                DEADLINE = MethodHandles.lookup().findVarHandle(Slot.class, "deadline", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final Context context;
+        private volatile long deadline = IDLE;
+        // written by the ticker only
+        private volatile long ignored = IDLE;
+        private volatile boolean cancelled;
+
+        private Slot(Context context) {
+            this.context = context;
+        }
+
+        /**
+         * Starts the countdown. The clock is advanced by the ticker, so the deadline is pushed by one more tick
+         * to make sure the context is never interrupted before its time limit.
+         */
+        public void arm() {
+            var deadline = clock + timeoutNanos + tickNanos;
+            DEADLINE.setRelease(this, deadline == IDLE ? 1 : deadline);
+        }
+
+        public void disarm() {
+            DEADLINE.setRelease(this, IDLE);
+        }
+
+        public boolean isArmed() {
+            return deadline != IDLE;
+        }
+
+        /**
+         * @return whether the context has been cancelled for ignoring an interruption.
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void close() {
+            disarm();
+            slots.remove(this);
+        }
     }
 }
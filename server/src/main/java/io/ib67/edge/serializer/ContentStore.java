@@ -0,0 +1,111 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge.serializer;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HexFormat;
+import java.util.Set;
+
+/**
+ * A directory of blobs named by the SHA-256 of their content, each distinct content is stored only once.
+ * <p>
+ * When a store is set as the {@link #ATTRIBUTE} of an {@code ObjectWriter}, {@link SourceSerializer} writes
+ * a reference to the blob instead of the source content, {@link SourceDeserializer} reads it back from the
+ * store attached to the {@code ObjectReader}.
+ */
+public class ContentStore {
+    public static final String ATTRIBUTE = ContentStore.class.getName();
+    protected final Path root;
+
+    public ContentStore(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * @return the digest which the content can be read with later.
+     */
+    public String put(byte[] content) throws IOException {
+        var digest = Hashing.sha256().hashBytes(content).toString();
+        var blob = root.resolve(digest);
+        if (Files.exists(blob)) return digest;
+        Files.createDirectories(root);
+        var temp = Files.createTempFile(root, digest, ".tmp");
+        try {
+            Files.write(temp, content);
+            Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return digest;
+    }
+
+    /**
+     * Creates a file in the store for streaming large contents, which are then added by {@link #putFile(Path)}.
+     */
+    public Path createTempFile() throws IOException {
+        Files.createDirectories(root);
+        return Files.createTempFile(root, "upload", ".tmp");
+    }
+
+    /**
+     * Moves {@code file} into the store, it's deleted if the content has been stored before.
+     *
+     * @return the digest which the content can be read with later.
+     */
+    public String putFile(Path file) throws IOException {
+        var digest = MoreFiles.asByteSource(file).hash(Hashing.sha256()).toString();
+        var blob = root.resolve(digest);
+        if (Files.exists(blob)) {
+            Files.delete(file);
+        } else {
+            Files.createDirectories(root);
+            Files.move(file, blob, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return digest;
+    }
+
+    public Path resolve(String digest) {
+        HexFormat.of().parseHex(digest); // rejects anything that could escape the root.
+        return root.resolve(digest);
+    }
+
+    public byte[] get(String digest) throws IOException {
+        return Files.readAllBytes(resolve(digest));
+    }
+
+    /**
+     * Deletes every blob not in {@code digests}.
+     */
+    public void retain(Set<String> digests) throws IOException {
+        if (Files.notExists(root)) return;
+        try (var stream = Files.list(root)) {
+            for (var blob : (Iterable<Path>) stream::iterator) {
+                if (!digests.contains(blob.getFileName().toString())) {
+                    Files.deleteIfExists(blob);
+                }
+            }
+        }
+    }
+}
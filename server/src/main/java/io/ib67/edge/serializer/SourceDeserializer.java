@@ -28,6 +28,7 @@ import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.io.ByteSequence;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.HexFormat;
 
 public class SourceDeserializer extends StdDeserializer<Source> {
@@ -49,12 +50,24 @@ public class SourceDeserializer extends StdDeserializer<Source> {
             builder = Source.newBuilder(language, ByteSequence.create(HexFormat.of().parseHex(data)), file);
         } else if ("string".equals(type)) {
             builder = Source.newBuilder(language, data, file);
+        } else if ("bytes-ref".equals(type) || "string-ref".equals(type)) {
+            if (!(deserializationContext.getAttribute(ContentStore.ATTRIBUTE) instanceof ContentStore store)) {
+                throw new JsonMappingException(jsonParser, "A content store is required to resolve " + data);
+            }
+            var content = store.get(data);
+            builder = "bytes-ref".equals(type)
+                    ? Source.newBuilder(language, ByteSequence.create(content), file)
+                    : Source.newBuilder(language, new String(content, StandardCharsets.UTF_8), file);
         } else {
             throw new JsonMappingException(jsonParser, "Unsupported type: " + type);
         }
         if (name != null) builder.name(name);
         if (mime != null) builder.mimeType(mime);
-        return builder.build();
+        var source = builder.build();
+        if (deserializationContext.getAttribute(SourceInterner.ATTRIBUTE) instanceof SourceInterner interner) {
+            return interner.intern(source);
+        }
+        return source;
     }
 
     public String getStrOrNull(TreeNode tree, String key) {
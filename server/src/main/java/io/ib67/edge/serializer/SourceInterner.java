@@ -0,0 +1,95 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge.serializer;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import org.graalvm.polyglot.Source;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Interns sources, so that a deployment read again (e.g. redeployed or restored) shares a single {@link Source}
+ * instance with the running one and the engine can reuse the code it has already parsed for it.
+ * <p>
+ * Sources are keyed by the digest of their content, along with the language, the MIME type, the name and the path.
+ * The engine tells sources apart by all of them, and stack traces and module resolution depend on the name and
+ * the path, so a source is never replaced by one named differently.
+ * Sources are weakly held, an entry disappears once no deployment refers to it anymore.
+ * <p>
+ * When an interner is set as the {@link #ATTRIBUTE} of an {@code ObjectReader}, {@link SourceDeserializer}
+ * interns every source it reads.
+ */
+public final class SourceInterner {
+    public static final String ATTRIBUTE = SourceInterner.class.getName();
+    private final Cache<Key, Source> sources = CacheBuilder.newBuilder().weakValues().build();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @return a previously interned source with the same content, or {@code source} itself.
+     */
+    public Source intern(Source source) {
+        try {
+            var interned = sources.get(Key.of(source), () -> {
+                misses.increment();
+                return source;
+            });
+            if (interned != source) hits.increment();
+            return interned;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * @return hex encoded SHA-256 of the characters (in UTF-8) or bytes of the source.
+     */
+    public static String digest(Source source) {
+        return hash(source).toString();
+    }
+
+    static HashCode hash(Source source) {
+        if (source.hasBytes()) {
+            return Hashing.sha256().hashBytes(source.getBytes().toByteArray());
+        }
+        return Hashing.sha256().hashString(source.getCharacters(), StandardCharsets.UTF_8);
+    }
+
+    public Stats getStats() {
+        return new Stats(sources.size(), hits.sum(), misses.sum());
+    }
+
+    /**
+     * @param hits how many sources were replaced by an existing instance.
+     */
+    public record Stats(long size, long hits, long misses) {
+    }
+
+    private record Key(String language, String mime, String name, String path, boolean binary, HashCode content) {
+        static Key of(Source source) {
+            return new Key(source.getLanguage(), source.getMimeType(), source.getName(), source.getPath(),
+                    source.hasBytes(), hash(source));
+        }
+    }
+}
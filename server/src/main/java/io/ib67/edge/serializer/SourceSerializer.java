@@ -23,6 +23,7 @@ import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 import org.graalvm.polyglot.Source;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.HexFormat;
 
 public class SourceSerializer extends StdSerializer<Source> {
@@ -37,7 +38,14 @@ public class SourceSerializer extends StdSerializer<Source> {
         jsonGenerator.writeStringField("mime", source.getMimeType());
         jsonGenerator.writeStringField("file", source.getPath());
         jsonGenerator.writeStringField("language", source.getLanguage());
-        if (source.hasBytes()) {
+        if (serializerProvider.getAttribute(ContentStore.ATTRIBUTE) instanceof ContentStore store) {
+            var binary = source.hasBytes();
+            var content = binary
+                    ? source.getBytes().toByteArray()
+                    : source.getCharacters().toString().getBytes(StandardCharsets.UTF_8);
+            jsonGenerator.writeStringField("type", binary ? "bytes-ref" : "string-ref");
+            jsonGenerator.writeStringField("data", store.put(content));
+        } else if (source.hasBytes()) {
             jsonGenerator.writeStringField("type", "bytes");
             jsonGenerator.writeStringField("data", HexFormat.of().formatHex(source.getBytes().toByteArray()));
         } else if (source.hasCharacters()) {
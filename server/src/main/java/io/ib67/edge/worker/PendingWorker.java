@@ -0,0 +1,58 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge.worker;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServerRequest;
+
+/**
+ * PendingWorker 代表一个正在冷启动的 WorkerGroup。启动期间到达的请求会被暂停并排队，
+ * 启动完成后再转交给 group 中的实例；启动失败时排队的请求返回 503。
+ * 它本身不会被部署为 verticle。
+ */
+public class PendingWorker extends Worker {
+    protected final Future<WorkerGroup> group;
+
+    public PendingWorker(Future<WorkerGroup> group) {
+        super(() -> {
+        });
+        this.group = group;
+    }
+
+    @Override
+    public void handleRequest(Vertx vertx, HttpServerRequest request) {
+        request.pause();
+        queued.incrementAndGet();
+        group.onComplete(ar -> {
+            queued.decrementAndGet();
+            if (ar.failed()) {
+                shed.increment();
+                request.response()
+                        .setStatusCode(503)
+                        .putHeader("Retry-After", String.valueOf(limits.retryAfterSeconds()))
+                        .end();
+                request.resume();
+                return;
+            }
+            // 保持暂停，由 worker 在脚本装好 handler 之后恢复
+            ar.result().select().handlePausedRequest(vertx, request);
+        });
+    }
+}
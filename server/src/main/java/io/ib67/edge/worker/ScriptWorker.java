@@ -19,15 +19,25 @@ package io.ib67.edge.worker;
 
 import io.ib67.edge.Deployment;
 import io.ib67.edge.api.script.RequestHandler;
+import io.ib67.edge.api.script.SnapshotRequestHandler;
 import io.ib67.edge.api.script.http.EdgeRequest;
+import io.ib67.edge.api.script.http.RequestSnapshot;
+import io.ib67.edge.cache.ResponseRecorder;
+import io.ib67.edge.config.ServerConfig.DispatchMode;
+import io.ib67.edge.script.ContextLimits;
 import io.ib67.edge.script.context.ScriptContext;
 import io.ib67.edge.script.watchdog.Watchdog;
-import io.ib67.edge.serializer.HttpRequestBox;
-import io.vertx.core.eventbus.Message;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServerRequest;
 import lombok.Getter;
 import lombok.SneakyThrows;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.graalvm.polyglot.Value;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
 /**
  * ScriptWorker 将请求转发给关联起来的脚本。脚本需要符合 esm 规范返回 export {}
@@ -39,18 +49,31 @@ public class ScriptWorker extends Worker {
     protected final Deployment deployment;
     protected final Logger log;
     protected final Watchdog watchdog;
+    protected final ResponseRecorder recorder;
+    protected Watchdog.Slot watchdogSlot;
     protected RequestHandler handler;
+    protected SnapshotRequestHandler snapshotHandler;
+    protected final BiConsumer<ScriptWorker, ContextLimits.Kind> onLimitExceeded;
+    protected volatile boolean limitExceeded;
+    // 已接收但响应还未结束的请求，续体超出限制时一并结束
+    protected final Set<HttpServerRequest> pendingRequests = ConcurrentHashMap.newKeySet();
 
     public ScriptWorker(
             ScriptContext context,
             Deployment deployment,
             Watchdog watchdog,
+            DispatchMode dispatchMode,
+            WorkerLimits limits,
+            ResponseRecorder recorder,
+            BiConsumer<ScriptWorker, ContextLimits.Kind> onLimitExceeded,
             Runnable onClose
     ) {
-        super(onClose);
+        super(onClose, dispatchMode, limits);
+        this.onLimitExceeded = onLimitExceeded;
         this.context = context;
         this.deployment = deployment;
         this.watchdog = watchdog;
+        this.recorder = recorder;
         log = LogManager.getLogger("service-" + deployment.name()); // todo log registry
     }
 
@@ -58,10 +81,22 @@ public class ScriptWorker extends Worker {
     @Override
     public void start() {
         super.start();
+        // 脚本写入响应时通过当前 context 找到 recorder
+        var vertxContext = vertx.getOrCreateContext();
+        vertxContext.put(ScriptWorker.class, this);
+        if (recorder != null) recorder.install(vertxContext);
+        // Thenable 回调等续体在 worker context 上执行，其中抛出的异常会交给这里
+        vertxContext.exceptionHandler(this::onContinuationFailure);
         if (!context.isInitialized()) context.init();
         var binding = context.getScriptContext().getBindings("js");
         binding.putMember("log", log);
-        handler = context.getExportedMembers().get("handleRequest").as(RequestHandler.class);
+        var exported = context.getExportedMembers().get("handleRequest");
+        if (wantsSnapshot(exported)) {
+            snapshotHandler = exported.as(SnapshotRequestHandler.class);
+        } else {
+            handler = exported.as(RequestHandler.class);
+        }
+        watchdogSlot = watchdog.register(context.getScriptContext());
         context.onLifecycleEvent("start");
     }
 
@@ -69,21 +104,101 @@ public class ScriptWorker extends Worker {
     @Override
     public void stop() {
         super.stop();
+        if (watchdogSlot != null) watchdogSlot.close();
         context.onLifecycleEvent("stop");
         context.close();
     }
 
     @Override
-    protected void handleRequest0(Message<HttpRequestBox> objectMessage) {
-        var req = objectMessage.body().request();
-        var watchdogCancel = watchdog.setTimeout(context.getScriptContext());
+    protected void handleRequest0(HttpServerRequest req) {
+        if (limitExceeded) {
+            // context 已被取消，等待被替换
+            rejectOverLimit(req);
+            return;
+        }
         try {
-            handler.handleRequest((EdgeRequest) req);
+            context.beforeRequest();
+            // 计数器由整个 context 共享，有其他请求在执行时重置会让它们的限制失效
+            if (inFlight.get() <= 1) context.resetLimits();
+            watchdogSlot.arm();
+            if (snapshotHandler != null) {
+                snapshotHandler.handleRequest((EdgeRequest) req, RequestSnapshot.of(req));
+            } else {
+                handler.handleRequest((EdgeRequest) req);
+            }
         } catch (Exception throwable) {
+            var kind = watchdogSlot.isCancelled() ? ContextLimits.Kind.TIMEOUT : ContextLimits.Kind.of(throwable);
+            if (kind != null) {
+                onLimitExceeded(req, kind);
+                return;
+            }
             req.response().setStatusCode(500).end("Script Server Error");
             log.error("Error handling request {}/{}", req.getHeader("Host"), req.path(), throwable);
         } finally {
-            watchdogCancel.run();
+            watchdogSlot.disarm();
+        }
+    }
+
+    /**
+     * @return 当前 context 上运行的 ScriptWorker，不在 worker 上时返回 null
+     */
+    public static ScriptWorker current() {
+        var context = Vertx.currentContext();
+        return context == null ? null : context.get(ScriptWorker.class);
+    }
+
+    @Override
+    protected void trackInFlight(HttpServerRequest request) {
+        pendingRequests.add(request);
+        super.trackInFlight(request);
+    }
+
+    @Override
+    protected void onReleased(HttpServerRequest request) {
+        pendingRequests.remove(request);
+    }
+
+    /**
+     * 续体不知道自己属于哪个请求。超出限制时整个 context 都被取消了，所以结束所有未完成的请求。
+     */
+    protected void onContinuationFailure(Throwable throwable) {
+        var kind = ContextLimits.Kind.of(throwable);
+        if (kind == null) {
+            log.error("Unhandled error in a continuation of deployment {}", deployment.name(), throwable);
+            return;
         }
+        pendingRequests.forEach(this::rejectOverLimit);
+        reportLimitExceeded(kind);
+    }
+
+    /**
+     * 声明了第二个参数的 handler 会额外收到一份请求快照，快照只在需要时才构建。
+     */
+    protected static boolean wantsSnapshot(Value handler) {
+        return handler.hasMember("length") && handler.getMember("length").fitsInInt()
+                && handler.getMember("length").asInt() >= 2;
+    }
+
+    /**
+     * 超出资源限制后 context 已被取消，不能再处理请求。只上报一次，由调用方替换掉这个 worker。
+     */
+    protected void onLimitExceeded(HttpServerRequest req, ContextLimits.Kind kind) {
+        rejectOverLimit(req);
+        reportLimitExceeded(kind);
+    }
+
+    protected void rejectOverLimit(HttpServerRequest req) {
+        var response = req.response();
+        if (response.ended() || response.closed()) return;
+        response.setStatusCode(503)
+                .putHeader("Retry-After", String.valueOf(limits.retryAfterSeconds()))
+                .end();
+    }
+
+    protected void reportLimitExceeded(ContextLimits.Kind kind) {
+        if (limitExceeded) return;
+        limitExceeded = true;
+        log.warn("Deployment {} exceeded its {} limit, restarting", deployment.name(), kind);
+        onLimitExceeded.accept(this, kind);
     }
 }
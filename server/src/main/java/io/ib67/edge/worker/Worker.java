@@ -17,18 +17,27 @@
 
 package io.ib67.edge.worker;
 
+import io.ib67.edge.config.ServerConfig.DispatchMode;
 import io.ib67.edge.serializer.HttpRequestBox;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
-import io.vertx.core.eventbus.Message;
 import io.vertx.core.eventbus.MessageConsumer;
 import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Worker 负责处理 eventbus 上订阅的信息以保持总是在同一个线程上。
+ * Worker 负责把请求交给自己的 context 处理以保持总是在同一个线程上。
+ * 默认直接在进程内投递，仅在 {@link DispatchMode#EVENT_BUS} 下才订阅 eventbus。
+ * 超出 {@link WorkerLimits} 的请求不会进入队列，而是直接返回 503。
  */
 @Log4j2
 public class Worker extends AbstractVerticle {
@@ -36,15 +45,39 @@ public class Worker extends AbstractVerticle {
     protected final String consumerId;
     protected MessageConsumer<HttpRequestBox> busHandle;
     protected final Runnable onClose;
+    protected final DispatchMode dispatchMode;
+    protected final WorkerLimits limits;
+    protected final AtomicInteger inFlight = new AtomicInteger();
+    protected final AtomicInteger queued = new AtomicInteger();
+    protected final LongAdder shed = new LongAdder();
+    protected final LongAdder requests = new LongAdder();
+    // 调用方暂停后才投递的请求，在 handleRequest0 返回、脚本装好 handler 之后恢复
+    protected final Set<HttpServerRequest> held = ConcurrentHashMap.newKeySet();
+    // 响应的 end/close handler 被 worker 占用，其他人的 handler 挂在这里依次调用
+    protected final Map<HttpServerResponse, InFlightRelease> releases = new ConcurrentHashMap<>();
+    @Getter
+    protected volatile Thread eventLoop;
 
     public Worker(Runnable onClose) {
+        this(onClose, DispatchMode.DIRECT, WorkerLimits.UNLIMITED);
+    }
+
+    public Worker(Runnable onClose, DispatchMode dispatchMode, WorkerLimits limits) {
         this.consumerId = "worker" + "-" + COUNTER.incrementAndGet();
         this.onClose = onClose;
+        this.dispatchMode = dispatchMode;
+        this.limits = limits;
     }
 
     @Override
     public void start() {
-        busHandle = vertx.eventBus().consumer(consumerId, this::handleRequest0);
+        eventLoop = Thread.currentThread();
+        if (dispatchMode == DispatchMode.EVENT_BUS) {
+            busHandle = vertx.eventBus().consumer(consumerId, it -> {
+                queued.decrementAndGet();
+                dispatch(it.body().request());
+            });
+        }
     }
 
     @Override
@@ -54,13 +87,181 @@ public class Worker extends AbstractVerticle {
         } catch (Throwable e) {
             log.error("Error occurred when closing resources for a worker", e);
         }
-        busHandle.unregister();
+        if (busHandle != null) busHandle.unregister();
+    }
+
+    protected void handleRequest0(HttpServerRequest request) {
+    }
+
+    public void handleRequest(Vertx vertx, HttpServerRequest request) {
+        if (!admit(request)) return;
+        trackInFlight(request);
+        if (dispatchMode == DispatchMode.EVENT_BUS) {
+            queued.incrementAndGet();
+            vertx.eventBus().send(consumerId, new HttpRequestBox(request));
+            return;
+        }
+        var workerContext = this.context;
+        if (Vertx.currentContext() == workerContext) {
+            dispatch(request);
+        } else {
+            queued.incrementAndGet();
+            workerContext.runOnContext(v -> {
+                queued.decrementAndGet();
+                dispatch(request);
+            });
+        }
+    }
+
+    /**
+     * 投递一个已被暂停的请求。请求保持暂停直到脚本同步地装好 handler，之前到达的 body 不会丢失。
+     */
+    public void handlePausedRequest(Vertx vertx, HttpServerRequest request) {
+        held.add(request);
+        handleRequest(vertx, request);
+    }
+
+    /**
+     * body 将由调用方通过 fetch 按需读取，worker 不再恢复这个请求。
+     */
+    public void claimBody(HttpServerRequest request) {
+        held.remove(request);
+    }
+
+    protected void dispatch(HttpServerRequest request) {
+        try {
+            handleRequest0(request);
+        } finally {
+            resumeHeld(request);
+        }
+    }
+
+    protected void resumeHeld(HttpServerRequest request) {
+        if (held.remove(request)) request.resume();
+    }
+
+    /**
+     * Rejects the request with 503 if the worker is over its limits. The counters are read without
+     * locking, so the limits may be exceeded slightly under contention, which is fine for shedding.
+     */
+    protected boolean admit(HttpServerRequest request) {
+        var limits = this.limits;
+        var maxInFlight = limits.maxInFlight();
+        var maxQueued = limits.maxQueued();
+        if ((maxInFlight < 0 || inFlight.get() < maxInFlight) && (maxQueued < 0 || queued.get() < maxQueued)) {
+            return true;
+        }
+        shed.increment();
+        request.response()
+                .setStatusCode(503)
+                .putHeader("Retry-After", String.valueOf(limits.retryAfterSeconds()))
+                .end();
+        // 让 Vert.x 读完并丢弃剩余的 body
+        resumeHeld(request);
+        return false;
     }
 
-    protected void handleRequest0(Message<HttpRequestBox> objectMessage) {
+    /**
+     * @return requests dispatched to this worker whose response hasn't been ended or closed yet.
+     */
+    public int getInFlight() {
+        return inFlight.get();
     }
 
-    public void handleRequest(Vertx vertx, HttpServerRequest objectMessage) {
-        vertx.eventBus().publish(consumerId, new HttpRequestBox(objectMessage));
+    /**
+     * @return requests waiting for the worker context to pick them up.
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * @return requests rejected by {@link #admit(HttpServerRequest)} since the worker is created.
+     */
+    public long getShed() {
+        return shed.sum();
+    }
+
+    /**
+     * @return requests admitted since the worker is created.
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    protected void trackInFlight(HttpServerRequest request) {
+        requests.increment();
+        inFlight.incrementAndGet();
+        var response = request.response();
+        var release = new InFlightRelease(request, response);
+        releases.put(response, release);
+        response.endHandler(release::ended).closeHandler(release::closed);
+    }
+
+    /**
+     * Vert.x 的 endHandler 只有一个位置，已被 worker 用来统计 in-flight。脚本的 handler 通过这里挂在 worker 的之后，
+     * 而不是替换掉它。
+     *
+     * @return 响应已经结束或不属于这个 worker 时返回 false
+     */
+    public boolean chainEndHandler(HttpServerResponse response, Handler<Void> handler) {
+        var release = releases.get(response);
+        if (release == null) return false;
+        release.endHandler = handler;
+        return true;
+    }
+
+    /**
+     * @see #chainEndHandler(HttpServerResponse, Handler)
+     */
+    public boolean chainCloseHandler(HttpServerResponse response, Handler<Void> handler) {
+        var release = releases.get(response);
+        if (release == null) return false;
+        release.closeHandler = handler;
+        return true;
+    }
+
+    /**
+     * 请求的响应结束或连接关闭后调用，每个请求只调用一次。
+     */
+    protected void onReleased(HttpServerRequest request) {
+    }
+
+    /**
+     * Both handlers are called on the connection's context, so a plain flag is enough.
+     * Chained handlers are set on the worker context, hence volatile.
+     */
+    protected final class InFlightRelease {
+        private final HttpServerRequest request;
+        private final HttpServerResponse response;
+        private boolean released;
+        private volatile Handler<Void> endHandler;
+        private volatile Handler<Void> closeHandler;
+
+        private InFlightRelease(HttpServerRequest request, HttpServerResponse response) {
+            this.request = request;
+            this.response = response;
+        }
+
+        private void ended(Void event) {
+            release();
+            var handler = endHandler;
+            if (handler != null) handler.handle(event);
+        }
+
+        private void closed(Void event) {
+            release();
+            var handler = closeHandler;
+            if (handler != null) handler.handle(event);
+        }
+
+        private void release() {
+            if (released) return;
+            released = true;
+            releases.remove(response, this);
+            inFlight.decrementAndGet();
+            resumeHeld(request);
+            onReleased(request);
+        }
     }
 }
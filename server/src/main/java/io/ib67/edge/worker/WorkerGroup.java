@@ -0,0 +1,115 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package io.ib67.edge.worker;
+
+import lombok.Getter;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * WorkerGroup 持有同一个 deployment 的多个 Worker 实例，每个实例拥有独立的 Context 并分布在不同的 event loop 上。
+ */
+public class WorkerGroup {
+    /**
+     * How many more in-flight requests the instance on the caller's event loop may have
+     * before we give up the locality and hand the request to a less busy one.
+     */
+    protected static final int LOCALITY_SLACK = 8;
+    @Getter
+    protected final List<Worker> instances;
+    protected final AtomicInteger cursor = new AtomicInteger();
+
+    public WorkerGroup(List<? extends Worker> instances) {
+        if (instances.isEmpty()) {
+            throw new IllegalArgumentException("A worker group requires at least one instance");
+        }
+        this.instances = List.copyOf(instances);
+    }
+
+    /**
+     * Picks the instance with the least in-flight requests.
+     * The scan starts from a rotating cursor, so ties are broken in a round-robin fashion.
+     * An instance running on the caller's event loop is preferred unless it is clearly busier than the others,
+     * which saves a thread hop when the server verticle and the worker share the same event loop.
+     */
+    public Worker select() {
+        var size = instances.size();
+        if (size == 1) return instances.getFirst();
+        var current = Thread.currentThread();
+        var start = Math.floorMod(cursor.getAndIncrement(), size);
+        Worker selected = null;
+        Worker local = null;
+        var least = Integer.MAX_VALUE;
+        var localInFlight = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            var candidate = instances.get((start + i) % size);
+            var inFlight = candidate.getInFlight();
+            if (local == null && candidate.getEventLoop() == current) {
+                local = candidate;
+                localInFlight = inFlight;
+            }
+            if (inFlight < least) {
+                least = inFlight;
+                selected = candidate;
+            }
+        }
+        if (local != null && localInFlight - least <= LOCALITY_SLACK) return local;
+        return selected;
+    }
+
+    public Worker primary() {
+        return instances.getFirst();
+    }
+
+    public int size() {
+        return instances.size();
+    }
+
+    public int getInFlight() {
+        var sum = 0;
+        for (Worker instance : instances) {
+            sum += instance.getInFlight();
+        }
+        return sum;
+    }
+
+    public int getQueued() {
+        var sum = 0;
+        for (Worker instance : instances) {
+            sum += instance.getQueued();
+        }
+        return sum;
+    }
+
+    public long getRequests() {
+        var sum = 0L;
+        for (Worker instance : instances) {
+            sum += instance.getRequests();
+        }
+        return sum;
+    }
+
+    public long getShed() {
+        var sum = 0L;
+        for (Worker instance : instances) {
+            sum += instance.getShed();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package io.ib67.edge.worker;
+
+/**
+ * 单个 Worker 实例的准入限制，超出限制的请求会被立即以 503 拒绝。负数表示不限制。
+ *
+ * @param maxInFlight       已派发但尚未响应的请求数上限
+ * @param maxQueued         已派发但尚未开始执行的请求数上限
+ * @param retryAfterSeconds 拒绝时 Retry-After 头的值
+ */
+public record WorkerLimits(int maxInFlight, int maxQueued, int retryAfterSeconds) {
+    public static final WorkerLimits UNLIMITED = new WorkerLimits(-1, -1, 1);
+
+    public WorkerLimits {
+        if (maxInFlight == 0 || maxQueued == 0) {
+            throw new IllegalArgumentException("Limits cannot be zero, use a negative number for unlimited");
+        }
+        retryAfterSeconds = Math.max(retryAfterSeconds, 1);
+    }
+}
@@ -16,10 +16,12 @@ module edge.server {
     requires org.jetbrains.annotations;
     requires com.google.guice;
     requires io.netty.common;
+    requires io.netty.buffer;
     requires com.google.common;
     exports io.ib67.edge.api.script.future;
     exports io.ib67.edge.api.script.http;
     exports io.ib67.edge;
+    exports io.ib67.edge.cache;
     exports io.ib67.edge.config;
     exports io.ib67.edge.serializer;
     exports io.ib67.edge.worker;
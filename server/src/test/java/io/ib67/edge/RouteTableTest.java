@@ -0,0 +1,85 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package io.ib67.edge;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RouteTableTest {
+    @Test
+    void testLookup() {
+        var table = RouteTable.<String>builder()
+                .label("test", "label")
+                .route("api.Example.com", "exact")
+                .route("*.example.com", "wildcard")
+                .route("*.deep.example.com", "deepWildcard")
+                .build();
+        assertEquals("label", table.lookup("test.localhost:8080"));
+        assertEquals("label", table.lookup("TEST.localhost"));
+        assertEquals("exact", table.lookup("API.example.com:443"));
+        assertEquals("exact", table.lookup("api.example.com."));
+        assertEquals("wildcard", table.lookup("www.example.com"));
+        assertEquals("deepWildcard", table.lookup("a.b.deep.example.com"));
+        assertEquals("wildcard", table.lookup("deep.example.com"));
+        assertNull(table.lookup("example.com"));
+        assertNull(table.lookup("localhost"));
+        assertNull(table.lookup("[::1]:8080"));
+        assertNull(table.lookup(null));
+        assertEquals(4, table.size());
+    }
+
+    @Test
+    void testPrecedence() {
+        var table = RouteTable.<String>builder()
+                .route("*", "default")
+                .route("*.localhost", "wildcard")
+                .label("test", "label")
+                .route("test.localhost", "exact")
+                .build();
+        assertEquals("exact", table.lookup("test.localhost"));
+        assertEquals("label", table.lookup("test.example.com"));
+        assertEquals("wildcard", table.lookup("other.localhost"));
+        assertEquals("default", table.lookup("localhost"));
+        assertEquals("default", table.lookup(""));
+    }
+
+    @Test
+    void testInvalidPatterns() {
+        var builder = RouteTable.<String>builder();
+        assertThrows(IllegalArgumentException.class, () -> builder.route("*.", "a"));
+        assertThrows(IllegalArgumentException.class, () -> builder.route("a.*.com", "a"));
+        assertThrows(IllegalArgumentException.class, () -> builder.route("host:80", "a"));
+        assertThrows(IllegalArgumentException.class, () -> builder.label("a.b", "a"));
+    }
+
+    @Test
+    void testManyRoutes() {
+        var builder = RouteTable.<Integer>builder();
+        for (int i = 0; i < 10_000; i++) {
+            builder.label("tenant" + i, i);
+            builder.route("tenant" + i + ".example.org", -i);
+        }
+        var table = builder.build();
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, table.lookup("tenant" + i + ".localhost"));
+            assertEquals(-i, table.lookup("TENANT" + i + ".example.org"));
+        }
+        assertNull(table.lookup("tenant10000.localhost"));
+    }
+}
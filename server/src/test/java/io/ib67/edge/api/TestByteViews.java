@@ -0,0 +1,96 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge.api;
+
+import io.ib67.edge.api.script.http.ByteViews;
+import io.vertx.core.buffer.Buffer;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.HostAccess;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestByteViews {
+    Context context;
+
+    @BeforeEach
+    public void setup() {
+        context = Context.newBuilder("js")
+                .allowHostAccess(HostAccess.newBuilder().allowBufferAccess(true).build())
+                .build();
+    }
+
+    @AfterEach
+    public void teardown() {
+        context.close();
+    }
+
+    @Test
+    public void testViewSharesMemory() {
+        var buffer = Buffer.buffer(new byte[]{1, 2, 3, 4});
+        var sum = context.eval("js", """
+                (bytes) => {
+                    const view = new Uint8Array(bytes);
+                    try {
+                        view[0] = 10;
+                    } catch (e) {
+                    }
+                    return view.reduce((a, b) => a + b, 0);
+                }
+                """).execute(ByteViews.view(buffer));
+        assertEquals(10, sum.asInt());
+        assertEquals(1, buffer.getByte(0), "the view should be read-only");
+        buffer.setByte(0, (byte) 5);
+        assertEquals(5, ByteViews.view(buffer).get(0), "the view should be backed by the buffer");
+    }
+
+    @Test
+    public void testFromGuestAndHost() {
+        var typed = context.eval("js", "new Uint8Array([0, 1, 2, 3, 4]).subarray(1, 4)");
+        assertEquals(Buffer.buffer(new byte[]{1, 2, 3}), ByteViews.from(typed));
+        var arrayBuffer = context.eval("js", "new Uint8Array([5, 6]).buffer");
+        assertEquals(Buffer.buffer(new byte[]{5, 6}), ByteViews.from(arrayBuffer));
+
+        var allocated = ByteViews.allocate(2);
+        context.eval("js", "(bytes) => { const view = new Uint8Array(bytes); view[0] = 7; view[1] = 8; }")
+                .execute(allocated);
+        var written = ByteViews.from(context.asValue(allocated));
+        assertEquals(Buffer.buffer(new byte[]{7, 8}), written);
+        allocated.put(0, (byte) 9);
+        assertEquals(9, written.getByte(0), "host buffers should be wrapped without copying");
+
+        assertThrows(IllegalArgumentException.class, () -> ByteViews.from(context.eval("js", "'text'")));
+        assertThrows(IllegalArgumentException.class, () -> ByteViews.allocate(ByteViews.MAX_ALLOCATION_BYTES + 1));
+    }
+
+    @Test
+    public void testWrapSharesMemory() {
+        var bytes = new byte[]{1, 2, 3, 4};
+        var content = ByteBuffer.wrap(bytes).position(1).asReadOnlyBuffer();
+        var wrapped = ByteViews.wrap(content);
+        assertEquals(Buffer.buffer(new byte[]{2, 3, 4}), wrapped);
+        assertEquals(1, content.position(), "the position of the content is kept for later requests");
+        bytes[1] = 9;
+        assertEquals(9, wrapped.getByte(0), "the content should be wrapped without copying");
+    }
+}
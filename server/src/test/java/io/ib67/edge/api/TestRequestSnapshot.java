@@ -0,0 +1,51 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge.api;
+
+import io.ib67.edge.api.script.http.RequestSnapshot;
+import io.vertx.core.MultiMap;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.PolyglotException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestRequestSnapshot {
+    @Test
+    public void testSnapshot() {
+        var headers = MultiMap.caseInsensitiveMultiMap()
+                .add("Accept", "text/html")
+                .add("X-Forwarded-For", "1.1.1.1")
+                .add("x-forwarded-for", "2.2.2.2");
+        var params = MultiMap.caseInsensitiveMultiMap()
+                .add("page", "1")
+                .add("page", "2");
+        var snapshot = RequestSnapshot.of("GET", "/search?page=1&page=2", "/search", "page=1&page=2",
+                "example.com", "http", headers, params);
+        try (var context = Context.create("js")) {
+            var describe = context.eval("js", """
+                    (request) => [request.method, request.path, request.headers.accept,
+                        request.headers["x-forwarded-for"], request.params.page, Object.keys(request.headers).length].join("|")
+                    """);
+            assertEquals("GET|/search|text/html|1.1.1.1, 2.2.2.2|1|2", describe.execute(snapshot).asString());
+            var write = context.eval("js", "(request) => { request.headers.accept = 'x'; }");
+            assertThrows(PolyglotException.class, () -> write.execute(snapshot));
+        }
+    }
+}
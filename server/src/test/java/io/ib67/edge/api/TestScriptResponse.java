@@ -0,0 +1,63 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package io.ib67.edge.api;
+
+import io.ib67.edge.api.script.ExportToScript;
+import io.ib67.edge.api.script.http.ScriptResponse;
+import io.vertx.core.Future;
+import io.vertx.core.http.HttpServerResponse;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.HostAccess;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class TestScriptResponse {
+    Context context;
+
+    @BeforeEach
+    public void setup() {
+        context = Context.newBuilder("js")
+                .allowHostAccess(HostAccess.newBuilder().allowAccessAnnotatedBy(ExportToScript.class).build())
+                .build();
+    }
+
+    @AfterEach
+    public void teardown() {
+        context.close();
+    }
+
+    @Test
+    public void testHostFilesUnreachable() {
+        var response = mock(HttpServerResponse.class);
+        var members = context.eval("js", "(response) => [typeof response.sendFile, typeof response.sendBundleFile]")
+                .execute(new ScriptResponse(response));
+        assertEquals("undefined", members.getArrayElement(0).asString(), "Vert.x sends any file of the host");
+        assertEquals("function", members.getArrayElement(1).asString());
+
+        // outside of workers there is no bundle to look into.
+        var sent = context.eval("js", "(response) => response.sendBundleFile('/etc/passwd')")
+                .execute(new ScriptResponse(response));
+        assertTrue(sent.<Future<?>>asHostObject().failed());
+        verify(response, never()).sendFile(anyString());
+        verify(response, never()).sendFile(anyString(), anyLong(), anyLong());
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge.cache;
+
+import io.ib67.edge.api.script.ExportToScript;
+import io.ib67.edge.api.script.http.EdgeResponse;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.*;
+import lombok.SneakyThrows;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.HostAccess;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static io.ib67.edge.cache.ResponseCacheTest.await;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class RequestCoalescerTest {
+    private final ResponseRecorder recorder = new ResponseRecorder();
+
+    @Test
+    void testFanOut() {
+        var coalescer = new RequestCoalescer(mock(Vertx.class), recorder, Duration.ofSeconds(10));
+        coalescer.enable("test", List.of("Accept-Encoding"));
+        var dispatched = new ArrayList<HttpServerRequest>();
+        var leader = request(HttpMethod.GET, "gzip");
+        var follower = request(HttpMethod.GET, "gzip");
+        var other = request(HttpMethod.GET, "br");
+        coalescer.dispatch("test", leader, dispatched::add);
+        coalescer.dispatch("test", follower, dispatched::add);
+        coalescer.dispatch("test", other, dispatched::add);
+        assertEquals(List.of(leader, other), dispatched, "requests with different selected headers are not coalesced");
+
+        var response = leader.response();
+        when(response.getStatusCode()).thenReturn(201);
+        response.headers()
+                .add("Content-Type", "text/plain")
+                .add("Transfer-Encoding", "chunked");
+        recorder.write(response, "hello ");
+        recorder.end(response, Buffer.buffer("world"));
+        verify(follower.response()).setStatusCode(201);
+        verify(follower.response()).end(Buffer.buffer("hello world"));
+        assertEquals("text/plain", follower.response().headers().get("Content-Type"));
+        assertFalse(follower.response().headers().contains("Transfer-Encoding"));
+
+        // the flight is over, the next request runs the script again.
+        var next = request(HttpMethod.GET, "gzip");
+        coalescer.dispatch("test", next, dispatched::add);
+        assertEquals(List.of(leader, other, next), dispatched);
+        var stats = coalescer.getStats().get("test");
+        assertEquals(3, stats.leaders());
+        assertEquals(1, stats.followers());
+        assertEquals(0.25, stats.ratio());
+    }
+
+    @Test
+    void testFallback() {
+        var coalescer = new RequestCoalescer(mock(Vertx.class), recorder, Duration.ofSeconds(10));
+        coalescer.enable("test", List.of());
+        var dispatched = new ArrayList<HttpServerRequest>();
+        var leader = request(HttpMethod.GET, "gzip");
+        var follower = request(HttpMethod.GET, "br");
+        coalescer.dispatch("test", leader, dispatched::add);
+        coalescer.dispatch("test", follower, dispatched::add);
+        assertEquals(List.of(leader), dispatched);
+
+        // a piped body can't be copied, the follower runs the script by itself.
+        recorder.abort(leader.response());
+        assertEquals(List.of(leader, follower), dispatched);
+        verify(follower).pause();
+        verify(follower).resume();
+        verify(follower.response(), never()).end(any(Buffer.class));
+        assertEquals(1, coalescer.getStats().get("test").fallbacks());
+
+        var post = request(HttpMethod.POST, "gzip");
+        coalescer.dispatch("test", post, dispatched::add);
+        coalescer.dispatch("test", request(HttpMethod.POST, "gzip"), dispatched::add);
+        assertEquals(4, dispatched.size(), "only GET and HEAD requests are coalesced");
+        coalescer.dispatch("other", request(HttpMethod.GET, "gzip"), dispatched::add);
+        assertEquals(5, dispatched.size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testTimeout() {
+        var vertx = mock(Vertx.class);
+        var timer = ArgumentCaptor.forClass(Handler.class);
+        when(vertx.setTimer(anyLong(), timer.capture())).thenReturn(1L);
+        var coalescer = new RequestCoalescer(vertx, recorder, Duration.ofSeconds(10));
+        coalescer.enable("test", List.of());
+        var dispatched = new ArrayList<HttpServerRequest>();
+        var leader = request(HttpMethod.HEAD, "gzip");
+        var follower = request(HttpMethod.HEAD, "gzip");
+        coalescer.dispatch("test", leader, dispatched::add);
+        coalescer.dispatch("test", follower, dispatched::add);
+        timer.getValue().handle(1L);
+        assertEquals(List.of(leader, follower), dispatched);
+
+        // the late response of the leader isn't copied anymore.
+        when(leader.response().getStatusCode()).thenReturn(200);
+        recorder.end(leader.response(), "late");
+        verify(follower.response(), never()).end();
+    }
+
+    @Test
+    void testPersonalised() {
+        var coalescer = new RequestCoalescer(mock(Vertx.class), recorder, Duration.ofSeconds(10));
+        coalescer.enable("test", List.of());
+        var dispatched = new ArrayList<HttpServerRequest>();
+        var leader = request(HttpMethod.GET, "gzip");
+        var follower = request(HttpMethod.GET, "gzip");
+        coalescer.dispatch("test", leader, dispatched::add);
+        coalescer.dispatch("test", follower, dispatched::add);
+        when(leader.response().getStatusCode()).thenReturn(200);
+        leader.response().headers().add("Set-Cookie", "session=1");
+        recorder.end(leader.response(), "welcome");
+        assertEquals(List.of(leader, follower), dispatched, "cookies of the leader must not be copied");
+        verify(follower.response(), never()).end(any(Buffer.class));
+
+        var privateLeader = request(HttpMethod.GET, "gzip");
+        var privateFollower = request(HttpMethod.GET, "gzip");
+        coalescer.dispatch("test", privateLeader, dispatched::add);
+        coalescer.dispatch("test", privateFollower, dispatched::add);
+        when(privateLeader.response().getStatusCode()).thenReturn(200);
+        privateLeader.response().headers().add("Cache-Control", "private, max-age=60");
+        recorder.end(privateLeader.response(), "yours");
+        assertEquals(List.of(leader, follower, privateLeader, privateFollower), dispatched);
+
+        dispatched.clear();
+        var first = request(HttpMethod.GET, "gzip");
+        var second = request(HttpMethod.GET, "gzip");
+        first.headers().add("Cookie", "session=1");
+        second.headers().add("Cookie", "session=1");
+        coalescer.dispatch("test", first, dispatched::add);
+        coalescer.dispatch("test", second, dispatched::add);
+        assertEquals(List.of(first, second), dispatched, "requests with credentials are not coalesced");
+
+        dispatched.clear();
+        coalescer.enable("test", List.of("Authorization"));
+        var alice = request(HttpMethod.GET, "gzip");
+        var aliceAgain = request(HttpMethod.GET, "gzip");
+        var bob = request(HttpMethod.GET, "gzip");
+        alice.headers().add("Authorization", "Bearer alice");
+        aliceAgain.headers().add("Authorization", "Bearer alice");
+        bob.headers().add("Authorization", "Bearer bob");
+        coalescer.dispatch("test", alice, dispatched::add);
+        coalescer.dispatch("test", aliceAgain, dispatched::add);
+        coalescer.dispatch("test", bob, dispatched::add);
+        assertEquals(List.of(alice, bob), dispatched, "credentials in the key tell the requests apart");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testLeaderClosed() {
+        var coalescer = new RequestCoalescer(mock(Vertx.class), recorder, Duration.ofSeconds(10));
+        coalescer.enable("test", List.of());
+        var dispatched = new ArrayList<HttpServerRequest>();
+        var leader = request(HttpMethod.GET, "gzip");
+        var follower = request(HttpMethod.GET, "gzip");
+        var exceptionHandler = ArgumentCaptor.forClass(Handler.class);
+        coalescer.dispatch("test", leader, dispatched::add);
+        coalescer.dispatch("test", follower, dispatched::add);
+        verify(leader.response()).exceptionHandler(exceptionHandler.capture());
+        // a reset of the leader releases the follower without waiting for the timeout.
+        exceptionHandler.getValue().handle(new IllegalStateException("Connection was closed"));
+        assertEquals(List.of(leader, follower), dispatched);
+    }
+
+    @Test
+    @SneakyThrows
+    void testFanOutThroughServer() {
+        var vertx = Vertx.vertx();
+        var coalescer = new RequestCoalescer(vertx, recorder, Duration.ofSeconds(10));
+        coalescer.enable("test", List.of());
+        // ends the response of the leader on the context the script ran on, where the recorder is installed.
+        var endLeader = new CompletableFuture<Runnable>();
+        var runs = new ArrayList<String>();
+        try (var context = Context.newBuilder("js")
+                .allowHostAccess(HostAccess.newBuilder().allowAccessAnnotatedBy(ExportToScript.class).build())
+                .build()) {
+            // the script leaves the response open, so the second request arrives while the first is in flight.
+            var script = context.eval("js", """
+                    (request) => {
+                        const response = request.response();
+                        response.putHeader("Content-Length", "11");
+                        response.write("hello ");
+                        return response;
+                    }
+                    """);
+            var server = await(vertx.createHttpServer().requestHandler(request -> {
+                recorder.install(Vertx.currentContext());
+                coalescer.dispatch("test", request, it -> {
+                    runs.add(it.uri());
+                    var response = script.execute(it).as(EdgeResponse.class);
+                    var scriptContext = Vertx.currentContext();
+                    endLeader.complete(() -> scriptContext.runOnContext(v -> response.end("world")));
+                });
+            }).listen(0, "127.0.0.1"));
+            var client = vertx.createHttpClient();
+            var first = client.request(HttpMethod.GET, server.actualPort(), "127.0.0.1", "/index.html")
+                    .compose(HttpClientRequest::send)
+                    .compose(HttpClientResponse::body);
+            var end = endLeader.get(10, TimeUnit.SECONDS);
+            var second = client.request(HttpMethod.GET, server.actualPort(), "127.0.0.1", "/index.html")
+                    .compose(HttpClientRequest::send)
+                    .compose(HttpClientResponse::body);
+            var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (coalescer.getStats().get("test").followers() == 0) {
+                assertTrue(System.nanoTime() < deadline, "the second request should join the flight");
+                Thread.sleep(10);
+            }
+            end.run();
+            assertEquals("hello world", await(first).toString());
+            assertEquals("hello world", await(second).toString(), "the follower receives every chunk of the leader");
+            assertEquals(List.of("/index.html"), runs);
+            assertEquals(0, coalescer.getStats().get("test").fallbacks());
+        } finally {
+            await(vertx.close());
+        }
+    }
+
+    private static HttpServerRequest request(HttpMethod method, String encoding) {
+        var request = mock(HttpServerRequest.class);
+        var response = mock(HttpServerResponse.class);
+        when(request.method()).thenReturn(method);
+        when(request.uri()).thenReturn("/index.html?page=1");
+        when(request.headers()).thenReturn(MultiMap.caseInsensitiveMultiMap()
+                .add("Host", "test.localhost:8080")
+                .add("Accept-Encoding", encoding));
+        when(request.response()).thenReturn(response);
+        when(response.headers()).thenReturn(MultiMap.caseInsensitiveMultiMap());
+        return request;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge.cache;
+
+import io.ib67.edge.api.script.ExportToScript;
+import io.vertx.core.Future;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.*;
+import lombok.SneakyThrows;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.HostAccess;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ResponseCacheTest {
+    private final ResponseRecorder recorder = new ResponseRecorder();
+
+    @Test
+    void testFreshness() {
+        var now = 1_000_000L;
+        assertEquals(60_000, ResponseCache.freshnessMillis(headers("Cache-Control", "public, max-age=60"), false, now));
+        assertEquals(10_000, ResponseCache.freshnessMillis(headers("Cache-Control", "max-age=60, s-maxage=\"10\""), false, now));
+        assertTrue(ResponseCache.freshnessMillis(headers("Cache-Control", "private, max-age=60"), false, now) <= 0);
+        assertTrue(ResponseCache.freshnessMillis(headers("Cache-Control", "no-store"), false, now) <= 0);
+        assertTrue(ResponseCache.freshnessMillis(headers("Cache-Control", "max-age=60"), true, now) <= 0,
+                "responses to authorized requests are private unless they say otherwise");
+        assertTrue(ResponseCache.freshnessMillis(MultiMap.caseInsensitiveMultiMap(), false, now) <= 0);
+        var expires = headers("Date", "Sun, 06 Nov 1994 08:49:37 GMT")
+                .add("Expires", "Sun, 06 Nov 1994 08:50:37 GMT");
+        assertEquals(60_000, ResponseCache.freshnessMillis(expires, false, now));
+        assertTrue(ResponseCache.freshnessMillis(headers("Expires", "0"), false, now) <= 0);
+        assertNull(ResponseCache.parseVary(List.of("Accept, *")));
+    }
+
+    @Test
+    void testStoreAndServe() {
+        var cache = new ResponseCache(1024 * 1024, recorder);
+        cache.enable("test");
+        var gzip = request(HttpMethod.GET, "gzip");
+        assertNull(cache.lookup("test", gzip));
+        cache.record("test", gzip);
+        var response = gzip.response();
+        when(response.getStatusCode()).thenReturn(200);
+        response.headers()
+                .add("Cache-Control", "max-age=60")
+                .add("Vary", "Accept-Encoding")
+                .add("Transfer-Encoding", "chunked");
+        recorder.write(response, "hello ");
+        recorder.end(response, Buffer.buffer("world"));
+
+        var hit = request(HttpMethod.GET, "gzip");
+        var cached = cache.lookup("test", hit);
+        assertNotNull(cached);
+        assertEquals("hello world", cached.body().toString());
+        assertFalse(cached.headers().contains("Transfer-Encoding"), "hop-by-hop headers should not be stored");
+        cache.serve(cached, hit);
+        verify(hit.response()).setStatusCode(200);
+        verify(hit.response()).end(cached.body());
+
+        var head = request(HttpMethod.HEAD, "gzip");
+        cache.serve(cache.lookup("test", head), head);
+        verify(head.response()).end();
+        assertNull(cache.lookup("test", request(HttpMethod.GET, "br")), "variants are keyed by Vary headers");
+        assertNull(cache.lookup("other", request(HttpMethod.GET, "gzip")));
+
+        assertEquals(1, cache.purge("test"));
+        assertNull(cache.lookup("test", request(HttpMethod.GET, "gzip")));
+        var stats = cache.getStats();
+        assertEquals(2, stats.hits());
+        assertEquals(1, stats.stores());
+        assertEquals(0, stats.bytes());
+    }
+
+    @Test
+    void testUncacheableResponses() {
+        var cache = new ResponseCache(1024 * 1024, recorder);
+        cache.enable("test");
+        var cookie = request(HttpMethod.GET, "gzip");
+        cache.record("test", cookie);
+        when(cookie.response().getStatusCode()).thenReturn(200);
+        cookie.response().headers()
+                .add("Cache-Control", "max-age=60")
+                .add("Set-Cookie", "session=1");
+        recorder.end(cookie.response(), "private");
+        assertNull(cache.lookup("test", request(HttpMethod.GET, "gzip")));
+
+        var piped = request(HttpMethod.GET, "gzip");
+        cache.record("test", piped);
+        when(piped.response().getStatusCode()).thenReturn(200);
+        piped.response().headers().add("Cache-Control", "max-age=60");
+        recorder.abort(piped.response());
+        recorder.end(piped.response(), "streamed");
+        assertNull(cache.lookup("test", request(HttpMethod.GET, "gzip")));
+
+        var post = request(HttpMethod.POST, "gzip");
+        assertNull(cache.lookup("test", post));
+        cache.record("test", post);
+        when(post.response().getStatusCode()).thenReturn(200);
+        post.response().headers().add("Cache-Control", "max-age=60");
+        recorder.end(post.response(), "created");
+        assertNull(cache.lookup("test", request(HttpMethod.GET, "gzip")));
+
+        var other = request(HttpMethod.GET, "gzip");
+        cache.record("other", other);
+        when(other.response().getStatusCode()).thenReturn(200);
+        other.response().headers().add("Cache-Control", "max-age=60");
+        recorder.end(other.response(), "not opted in");
+        assertNull(cache.lookup("other", request(HttpMethod.GET, "gzip")));
+        assertEquals(0, cache.getStats().stores());
+    }
+
+    @Test
+    @SneakyThrows
+    void testRecordScriptThroughServer() {
+        var vertx = Vertx.vertx();
+        var cache = new ResponseCache(1024 * 1024, recorder);
+        cache.enable("test");
+        try (var context = Context.newBuilder("js")
+                .allowHostAccess(HostAccess.newBuilder().allowAccessAnnotatedBy(ExportToScript.class).build())
+                .build()) {
+            var script = context.eval("js", """
+                    (request) => {
+                        const response = request.response();
+                        response.putHeader("Cache-Control", "max-age=60");
+                        response.putHeader("Content-Length", "11");
+                        response.write("hello ");
+                        response.end("world");
+                    }
+                    """);
+            var server = await(vertx.createHttpServer().requestHandler(request -> {
+                var cached = cache.lookup("test", request);
+                if (cached != null) {
+                    cache.serve(cached, request);
+                    return;
+                }
+                recorder.install(Vertx.currentContext());
+                cache.record("test", request);
+                script.executeVoid(request);
+            }).listen(0, "127.0.0.1"));
+            var client = vertx.createHttpClient();
+            for (int i = 0; i < 2; i++) {
+                var body = await(client.request(HttpMethod.GET, server.actualPort(), "127.0.0.1", "/index.html")
+                        .compose(HttpClientRequest::send)
+                        .compose(HttpClientResponse::body));
+                assertEquals("hello world", body.toString(), "every chunk written by the script is recorded");
+            }
+            assertEquals(1, cache.getStats().stores());
+            assertEquals(1, cache.getStats().hits());
+        } finally {
+            await(vertx.close());
+        }
+    }
+
+    static <T> T await(Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    private static MultiMap headers(String name, String value) {
+        return MultiMap.caseInsensitiveMultiMap().add(name, value);
+    }
+
+    private static HttpServerRequest request(HttpMethod method, String encoding) {
+        var request = mock(HttpServerRequest.class);
+        var response = mock(HttpServerResponse.class);
+        when(request.method()).thenReturn(method);
+        when(request.uri()).thenReturn("/index.html?page=1");
+        when(request.headers()).thenReturn(MultiMap.caseInsensitiveMultiMap()
+                .add("Host", "test.localhost:8080")
+                .add("Accept-Encoding", encoding));
+        when(request.response()).thenReturn(response);
+        when(response.headers()).thenReturn(MultiMap.caseInsensitiveMultiMap());
+        return request;
+    }
+}
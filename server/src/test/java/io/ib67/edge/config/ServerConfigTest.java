@@ -0,0 +1,61 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge.config;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
+import io.ib67.edge.config.ServerConfig.HttpConfig;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServerConfigTest {
+    @Test
+    void testHttpConfigDefaults() throws Exception {
+        var mapper = new YAMLMapper();
+        var tree = (ObjectNode) mapper.valueToTree(ServerConfig.defaultConfig());
+        tree.remove("http");
+        tree.remove("controlHttp");
+        var config = mapper.treeToValue(tree, ServerConfig.class);
+        // missing sections keep what Vert.x does by default.
+        assertEquals(HttpConfig.DEFAULT, config.http());
+        var options = config.http().toServerOptions();
+        assertTrue(options.isHttp2ClearTextEnabled());
+        assertTrue(options.isTcpNoDelay());
+        assertFalse(options.isCompressionSupported());
+    }
+
+    @Test
+    void testHttpConfigMapping() {
+        var options = new HttpConfig(false, 6, 30, 16384, false, true, true, 65536, 32768, 256).toServerOptions();
+        assertFalse(options.isUseAlpn());
+        assertFalse(options.isHttp2ClearTextEnabled());
+        assertTrue(options.isCompressionSupported());
+        assertEquals(6, options.getCompressionLevel());
+        assertEquals(30, options.getIdleTimeout());
+        assertEquals(16384, options.getMaxHeaderSize());
+        assertFalse(options.isTcpNoDelay());
+        assertTrue(options.isTcpFastOpen());
+        assertTrue(options.isReusePort());
+        assertEquals(65536, options.getSendBufferSize());
+        assertEquals(32768, options.getReceiveBufferSize());
+        assertEquals(256, options.getInitialSettings().getMaxConcurrentStreams());
+        assertThrows(IllegalArgumentException.class, () -> new HttpConfig(null, 10, 0, 0, null, false, false, 0, 0, 0));
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package io.ib67.edge.script;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class CodeCacheTest {
+    @TempDir
+    Path root;
+
+    @Test
+    void testKeyFollowsLibrariesAndOptions() throws Exception {
+        var libraries = Files.createDirectories(root.resolve("lib/the_lib"));
+        var cacheDir = root.resolve("cache");
+        Files.writeString(libraries.resolve("index.mjs"), "export let a = 1;");
+        var cache = CodeCache.create(cacheDir, root.resolve("lib"), List.of(), Map.of());
+        // tests run on a JVM, where the auxiliary engine cache can't be used.
+        assertFalse(cache.isSupported());
+        var key = cache.getKey();
+        assertEquals(key, CodeCache.create(cacheDir, root.resolve("lib"), List.of(), Map.of()).getKey());
+
+        assertNotEquals(key, CodeCache.create(cacheDir, root.resolve("lib"), List.of(), Map.of("engine.Mode", "latency")).getKey());
+        Files.writeString(libraries.resolve("index.mjs"), "export let a = 2;");
+        assertNotEquals(key, CodeCache.create(cacheDir, root.resolve("lib"), List.of(), Map.of()).getKey());
+    }
+
+    @Test
+    void testKeyFollowsDeploymentSources() throws Exception {
+        var libraries = root.resolve("lib");
+        var bundles = Files.createDirectories(root.resolve("bundles"));
+        var cacheDir = root.resolve("cache");
+        var key = CodeCache.create(cacheDir, libraries, List.of(bundles), Map.of()).getKey();
+        Files.writeString(bundles.resolve("upload1.tmp"), "partial");
+        assertEquals(key, CodeCache.create(cacheDir, libraries, List.of(bundles), Map.of()).getKey(),
+                "uploads in progress are ignored");
+
+        Files.writeString(bundles.resolve("0a1b"), "bundle");
+        assertNotEquals(key, CodeCache.create(cacheDir, libraries, List.of(bundles), Map.of()).getKey());
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package io.ib67.edge.script;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContextPoolTest {
+    static Engine engine;
+
+    @BeforeAll
+    static void setupEngine() {
+        engine = Engine.create();
+    }
+
+    @AfterAll
+    static void teardownEngine() {
+        engine.close();
+    }
+
+    @Test
+    void testRefill() throws InterruptedException {
+        try (var pool = new ContextPool(
+                () -> Context.newBuilder("js").engine(engine).build(),
+                2,
+                Thread.ofPlatform().daemon().factory())) {
+            awaitIdle(pool, 2);
+            var context = pool.take();
+            assertEquals(2, context.eval("js", "1+1").asInt());
+            context.close();
+            assertEquals(1, pool.getStats().hits());
+            assertEquals(0, pool.getStats().misses());
+            awaitIdle(pool, 2);
+        }
+    }
+
+    @Test
+    void testClosed() {
+        var pool = new ContextPool(
+                () -> Context.newBuilder("js").engine(engine).build(),
+                1,
+                Thread.ofPlatform().daemon().factory());
+        pool.close();
+        assertThrows(IllegalStateException.class, pool::take);
+    }
+
+    private static void awaitIdle(ContextPool pool, int idle) throws InterruptedException {
+        for (int i = 0; i < 100 && pool.getStats().idle() < idle; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(idle, pool.getStats().idle());
+    }
+}
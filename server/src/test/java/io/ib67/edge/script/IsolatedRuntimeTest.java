@@ -17,7 +17,9 @@
 
 package io.ib67.edge.script;
 
+import com.google.common.hash.Hashing;
 import com.google.common.jimfs.Jimfs;
+import io.ib67.edge.Deployment;
 import io.ib67.edge.script.locator.DirectoryModuleLocator;
 import lombok.SneakyThrows;
 import org.graalvm.polyglot.*;
@@ -25,12 +27,21 @@ import org.graalvm.polyglot.io.IOAccess;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -109,4 +120,114 @@ class IsolatedRuntimeTest {
         assertTrue(Files.exists(outputPath));
         assertEquals("hello", Files.readString(outputPath));
     }
+
+    @Test
+    @SneakyThrows
+    void testStubCacheSharedAcrossThreads() {
+        var runtime = new IsolatedRuntime(engine, new DirectoryModuleLocator(libraryRoot), HostAccess.newBuilder()
+                .allowMapAccess(true)
+                .build());
+        runtime.prepareThread().run();
+        var local = runtime.perThreadLibrary.get();
+        // preparing the thread again doesn't replace, and leak, the installed context.
+        runtime.prepareThread().run();
+        assertSame(local, runtime.perThreadLibrary.get());
+        var remote = new AtomicReference<IsolatedRuntime.ModuleContext>();
+        var thread = Thread.ofPlatform().start(() -> remote.set(runtime.perThreadLibrary.get()));
+        thread.join();
+        assertNotSame(local, remote.get());
+        assertSame(local.stubLocator().getLastCache(), remote.get().stubLocator().getLastCache());
+        local.close();
+        remote.get().close();
+    }
+
+    @Test
+    @SneakyThrows
+    void testBundleRelativeImports(@TempDir Path bundles) {
+        var archive = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("index.mjs"));
+            zip.write("""
+                    import { greet } from "./lib/greet.mjs";
+                    export function test(){ return greet(); }
+                    """.getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("lib/greet.mjs"));
+            zip.write("export function greet(){ return 'hi'; }".getBytes(StandardCharsets.UTF_8));
+        }
+        var digest = Hashing.sha256().hashBytes(archive.toByteArray()).toString();
+        Files.write(bundles.resolve(digest), archive.toByteArray());
+
+        var runtime = new IsolatedRuntime(engine, new DirectoryModuleLocator(libraryRoot), HostAccess.newBuilder()
+                .allowMapAccess(true)
+                .build());
+        runtime.setBundleDirectory(bundles);
+        var context = runtime.create(runtime.loadBundle(digest, Deployment.DEFAULT_ENTRYPOINT), it -> {
+        }, ContextLimits.UNLIMITED, digest);
+        context.init();
+        assertEquals("hi", context.getExportedMembers().get("test").execute().asString());
+        assertEquals("greet.mjs", context.locateFile("/_edge_bundle/" + digest + "/lib/greet.mjs").name());
+        // files sent by the deployment never leave its bundle.
+        assertThrows(NoSuchFileException.class, () -> context.locateFile("/etc/passwd"));
+        assertThrows(NoSuchFileException.class, () -> context.locateFile("file:///etc/passwd"));
+        assertThrows(NoSuchFileException.class, () -> context.locateFile("/_edge_bundle/" + digest + "/../../etc/passwd"));
+        context.close();
+        assertThrows(NoSuchFileException.class, () -> runtime.loadBundle("0".repeat(64), "index.mjs"));
+
+        // other deployments can't reach the bundle even if they know its digest.
+        var stranger = runtime.create(Source.newBuilder("js", """
+                import { greet } from "/_edge_bundle/%s/lib/greet.mjs";
+                export function test(){ return greet(); }
+                """.formatted(digest), "stranger.mjs").build(), it -> {
+        });
+        assertThrows(Exception.class, stranger::init);
+        assertThrows(NoSuchFileException.class, () -> stranger.locateFile("/_edge_bundle/" + digest + "/index.mjs"));
+        assertThrows(NoSuchFileException.class, () -> runtime.locateFile(null, "/_edge_bundle/" + digest + "/index.mjs"));
+        stranger.close();
+    }
+
+    @Test
+    @SneakyThrows
+    void testStatementLimitPerRequest() {
+        var runtime = new IsolatedRuntime(engine, new DirectoryModuleLocator(libraryRoot), HostAccess.newBuilder()
+                .allowMapAccess(true)
+                .build());
+        var source = Source.newBuilder("js", """
+                export function count(n){ let i = 0; while (i < n) i++; return i; }
+                """, "limited.mjs").build();
+        var context = runtime.create(source, it -> {
+        }, new ContextLimits(1000, -1, -1));
+        context.init();
+        var count = context.getExportedMembers().get("count");
+        for (int i = 0; i < 3; i++) {
+            // counters are reset between requests, so the limit isn't accumulated
+            context.resetLimits();
+            assertEquals(100, count.execute(100).asInt());
+        }
+        context.resetLimits();
+        var exception = assertThrows(PolyglotException.class, () -> count.execute(100_000));
+        assertEquals(ContextLimits.Kind.STATEMENTS, ContextLimits.Kind.of(exception));
+        assertNull(ContextLimits.Kind.of(new IllegalStateException()));
+        context.close();
+    }
+
+    @Test
+    @SneakyThrows
+    void testCancellationIsNotLimitHit() {
+        var context = Context.newBuilder("js").engine(engine).build();
+        var thrown = new CompletableFuture<Throwable>();
+        var thread = new Thread(() -> {
+            try {
+                context.eval("js", "while (true) {}");
+            } catch (Throwable t) {
+                thrown.complete(t);
+            }
+        });
+        thread.start();
+        Thread.sleep(100);
+        // like undeploying a worker which is still running
+        context.close(true);
+        var exception = thrown.get(10, TimeUnit.SECONDS);
+        assertTrue(((PolyglotException) exception).isCancelled());
+        assertNull(ContextLimits.Kind.of(exception));
+    }
 }
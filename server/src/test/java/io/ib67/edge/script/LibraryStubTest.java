@@ -18,6 +18,7 @@
 package io.ib67.edge.script;
 
 import com.google.common.jimfs.Jimfs;
+import io.ib67.edge.script.io.StubFileSystem;
 import io.ib67.edge.script.locator.DirectoryModuleLocator;
 import io.ib67.edge.script.locator.ModuleLocator;
 import lombok.SneakyThrows;
@@ -27,10 +28,16 @@ import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.Value;
 import org.junit.jupiter.api.*;
 
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -124,6 +131,24 @@ public class LibraryStubTest {
         assertTrue(cache.getLibrarySources().containsKey("lib1"));
     }
 
+    @Test
+    @SneakyThrows
+    public void testCacheIncrementalRebuild() {
+        ModuleLocator locator = new DirectoryModuleLocator(libRoot);
+        var previous = new IsolatedRuntime.LibraryStubCache(context, locator);
+        var newScript = lib1Root.resolve("incremental.mjs");
+        Files.writeString(newScript, """
+                export function incremental(){}
+                """);
+        var cache = new IsolatedRuntime.LibraryStubCache(context, locator, previous, Set.of("lib1"));
+        Files.deleteIfExists(newScript);
+
+        assertEquals(previous.getVersion() + 1, cache.getVersion());
+        assertSame(previous.getLibrarySources().get("lib2"), cache.getLibrarySources().get("lib2"));
+        assertNotSame(previous.getLibrarySources().get("lib1"), cache.getLibrarySources().get("lib1"));
+        assertTrue(cache.getSymbolsFromModule("lib1").contains("incremental"));
+    }
+
     /// /////////////////////////////////////////////////////////////////////
     /// TESTS FOR CACHE LOCATOR
     /// /////////////////////////////////////////////////////////////////////
@@ -191,15 +216,56 @@ public class LibraryStubTest {
     }
 
     @SneakyThrows
-    Value getExportedSymbols(ModuleLocator locator, String module, String fileName) {
+    Value getExportedSymbols(IsolatedRuntime.StubModuleLocator locator, String module, String fileName) {
         Path result = locator.locateModule(module, fileName);
-        var stubCode = Files.readString(result);
+        var stubFs = new StubFileSystem(stubCacheDir, locator::getLastCache);
+        String stubCode;
+        try (var channel = stubFs.newByteChannel(result, Set.of())) {
+            stubCode = new String(Channels.newInputStream(channel).readAllBytes(), StandardCharsets.UTF_8);
+        }
         System.out.println(stubCode);
         var stubSource = Source.newBuilder("js", stubCode, fileName).build();
         return context.eval(stubSource);
     }
 
 
+    @Test
+    public void testStubFileSystemIsReadOnly() {
+        ModuleLocator mockLocator = new DirectoryModuleLocator(libRoot);
+        IsolatedRuntime.StubModuleLocator locator = new IsolatedRuntime.StubModuleLocator(stubCacheDir);
+        locator.updateCache(new IsolatedRuntime.LibraryStubCache(context, mockLocator));
+        var stubFs = new StubFileSystem(stubCacheDir, locator::getLastCache);
+        var stub = locator.locateModule("lib1", "_index.mjs");
+        assertThrows(ReadOnlyFileSystemException.class, () -> stubFs.delete(stub));
+        assertThrows(NoSuchFileException.class, () -> stubFs.newByteChannel(stub.resolveSibling("other.mjs"), Set.of()));
+        assertThrows(IllegalArgumentException.class, () -> locator.locateModule("nonexistent", "_index.mjs"));
+    }
+
+    @Test
+    @SneakyThrows
+    public void testListStubs() {
+        ModuleLocator mockLocator = new DirectoryModuleLocator(libRoot);
+        IsolatedRuntime.StubModuleLocator locator = new IsolatedRuntime.StubModuleLocator(stubCacheDir);
+        locator.updateCache(new IsolatedRuntime.LibraryStubCache(context, mockLocator));
+        var stubFs = new StubFileSystem(stubCacheDir, locator::getLastCache);
+        var stub = locator.locateModule("lib1", "_index.mjs");
+        var version = stub.getParent().getParent();
+        assertEquals(Set.of(version), list(stubFs, stubCacheDir));
+        assertEquals(Set.of(version.resolve("lib1"), version.resolve("lib2")), list(stubFs, version));
+        assertEquals(Set.of(stub), list(stubFs, stub.getParent()));
+        assertThrows(NotDirectoryException.class, () -> stubFs.newDirectoryStream(stub, it -> true));
+        assertThrows(NoSuchFileException.class, () -> stubFs.newDirectoryStream(version.resolve("nonexistent"), it -> true));
+    }
+
+    @SneakyThrows
+    Set<Path> list(StubFileSystem stubFs, Path dir) {
+        var children = new HashSet<Path>();
+        try (var stream = stubFs.newDirectoryStream(dir, it -> true)) {
+            stream.forEach(children::add);
+        }
+        return children;
+    }
+
     @Test
     public void testLocatorDiscoverLibraries() {
         ModuleLocator mockLocator = new DirectoryModuleLocator(libRoot);
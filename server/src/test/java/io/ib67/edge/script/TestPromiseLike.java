@@ -21,9 +21,12 @@ import io.ib67.edge.api.script.AsyncIterator;
 import io.ib67.edge.api.script.ExportToScript;
 import io.ib67.edge.api.script.function.Exports;
 import io.ib67.edge.api.script.future.Thenable;
+import io.ib67.edge.api.script.http.BodyStream;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerRequest;
 import org.graalvm.polyglot.Engine;
 import org.graalvm.polyglot.HostAccess;
 import org.graalvm.polyglot.Source;
@@ -33,17 +36,24 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
 /**
  * This test was moved to launcher for
@@ -106,6 +116,11 @@ public class TestPromiseLike {
                         .allowAccessAnnotatedBy(ExportToScript.class)
                         .build();
             }
+
+            @Override
+            public Source loadBundle(String bundle, String entrypoint) throws IOException {
+                throw new NoSuchFileException(bundle);
+            }
         };
         var result = new ArrayList<String>();
         var elements = List.of("a", "b", "c");
@@ -134,6 +149,65 @@ public class TestPromiseLike {
         assertEquals(elements, result);
     }
 
+    @Test
+    public void testBodyStream() {
+        var request = mock(HttpServerRequest.class);
+        var dataHandler = new AtomicReference<Handler<Buffer>>();
+        var endHandler = new AtomicReference<Handler<Void>>();
+        doAnswer(invo -> {
+            dataHandler.set(invo.getArgument(0));
+            return request;
+        }).when(request).handler(any());
+        doAnswer(invo -> {
+            endHandler.set(invo.getArgument(0));
+            return request;
+        }).when(request).endHandler(any());
+        var chunks = new ArrayDeque<>(List.of("a", "b", "c"));
+        var fetched = new AtomicInteger();
+        doAnswer(invo -> {
+            fetched.incrementAndGet();
+            if (chunks.isEmpty()) {
+                endHandler.get().handle(null);
+            } else {
+                dataHandler.get().handle(Buffer.buffer(chunks.poll()));
+            }
+            return request;
+        }).when(request).fetch(1);
+
+        var runtime = new ScriptRuntime(Engine.newBuilder().err(System.err).build()) {
+            @Override
+            protected HostAccess getHostAccess() {
+                return HostAccess.newBuilder()
+                        .allowAccessAnnotatedBy(ExportToScript.class)
+                        .build();
+            }
+
+            @Override
+            public Source loadBundle(String bundle, String entrypoint) throws IOException {
+                throw new NoSuchFileException(bundle);
+            }
+        };
+        var result = new ArrayList<String>();
+        var source = Source.create("js", """
+                (async function(){
+                    for await (const chunk of openStream(null)){
+                        result(chunk);
+                    }
+                    result(null);
+                })();
+                """);
+        var context = Assertions.assertDoesNotThrow(() -> runtime.create(Source.create("js", ""), binding -> {
+            binding.putMember("result", Exports.export((Consumer<Buffer>) it -> result.add(it == null ? null : it.toString())));
+            binding.putMember("openStream", Exports.export((Function<Object, Value>) it -> new BodyStream(request, null).asAsyncIterable()));
+        }));
+        Assertions.assertDoesNotThrow(context::init);
+        context.eval(source);
+
+        verify(request).pause();
+        assertEquals(4, fetched.get(), "the body should be fetched one chunk per read");
+        assertEquals(Arrays.asList("a", "b", "c", null), result);
+    }
+
     public record TestResultCollector(Consumer<String> collector) {
         @ExportToScript
         public void collect(String result) {
@@ -21,10 +21,13 @@ import lombok.SneakyThrows;
 import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.Engine;
 import org.graalvm.polyglot.HostAccess;
+import org.graalvm.polyglot.PolyglotException;
 import org.graalvm.polyglot.Source;
 import org.junit.jupiter.api.*;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 class IncrementalModuleContextTest {
     Context context;
@@ -73,4 +76,63 @@ class IncrementalModuleContextTest {
         assertEquals(2, scriptContext.getModuleExports().get("b").getMember("b").asInt());
     }
 
-}
\ No newline at end of file
+    @SneakyThrows
+    @Test
+    void loadLazyModules() {
+        var counter = new int[1];
+        context.getBindings("js").putMember("counter", (Runnable) () -> counter[0]++);
+        var moduleSource = Source.newBuilder("js", """
+                counter.run();
+                export let a = 1;
+                """, "lazy.mjs").build();
+        var scriptContext = new IncrementalModuleContext(context);
+        scriptContext.addLazyModule("lazy", List.of(moduleSource));
+        assertEquals(0, counter[0]);
+        assertTrue(scriptContext.getModuleNames().contains("lazy"));
+
+        assertEquals(1, scriptContext.getModule("lazy").getMember("a").asInt());
+        assertEquals(1, scriptContext.getModule("lazy").getMember("a").asInt());
+        assertEquals(1, counter[0]);
+        assertNull(scriptContext.getModule("nonexistent"));
+
+        scriptContext.addLazyModule("other", List.of(Source.newBuilder("js", moduleSource.getCharacters(), "other.mjs").build()));
+        var exports = scriptContext.getModuleExports();
+        assertTrue(exports.containsKey("other"));
+        assertEquals(2, exports.size());
+        assertEquals(1, counter[0], "listing modules doesn't evaluate them");
+        assertEquals(1, exports.get("other").getMember("a").asInt());
+        assertEquals(2, counter[0]);
+    }
+
+    @SneakyThrows
+    @Test
+    void retryFailedLazyModules() {
+        var attempts = new int[1];
+        context.getBindings("js").putMember("attempt", (Runnable) () -> {
+            if (attempts[0]++ == 0) throw new IllegalStateException("first attempt fails");
+        });
+        var moduleSource = Source.newBuilder("js", """
+                attempt.run();
+                export let a = 1;
+                """, "flaky.mjs").build();
+        var scriptContext = new IncrementalModuleContext(context);
+        scriptContext.addLazyModule("flaky", List.of(moduleSource));
+        assertThrows(PolyglotException.class, () -> scriptContext.getModule("flaky"));
+        assertTrue(scriptContext.getModuleNames().contains("flaky"));
+        assertEquals(1, scriptContext.getModule("flaky").getMember("a").asInt());
+    }
+
+    @SneakyThrows
+    @Test
+    void keepPreviousVersionOnBrokenReload() {
+        var scriptContext = new IncrementalModuleContext(context);
+        scriptContext.addLazyModule("lib", List.of(Source.newBuilder("js", "export let a = 1;", "v1.mjs").build()));
+        assertEquals(1, scriptContext.getModule("lib").getMember("a").asInt());
+
+        scriptContext.reloadModule("lib", List.of(Source.newBuilder("js", "throw new Error('broken');", "v2.mjs").build()));
+        assertEquals(1, scriptContext.getModule("lib").getMember("a").asInt());
+
+        scriptContext.reloadModule("lib", List.of(Source.newBuilder("js", "export let a = 3;", "v3.mjs").build()));
+        assertEquals(3, scriptContext.getModule("lib").getMember("a").asInt());
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package io.ib67.edge.script.io;
+
+import org.graalvm.polyglot.io.FileSystem;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArchiveFileSystemTest {
+    static final Path ROOT = Path.of("/_bundle");
+
+    @Test
+    void testZip(@TempDir Path dir) throws IOException {
+        var archive = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("index.mjs"));
+            zip.write("export default 1".getBytes(StandardCharsets.UTF_8));
+            var content = "stored".getBytes(StandardCharsets.UTF_8);
+            var stored = new ZipEntry("lib/stored.txt");
+            var crc = new CRC32();
+            crc.update(content);
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(content.length);
+            stored.setCrc(crc.getValue());
+            zip.putNextEntry(stored);
+            zip.write(content);
+        }
+        var file = Files.write(dir.resolve("bundle.zip"), archive.toByteArray());
+        var fs = ArchiveFileSystem.open(file, ROOT);
+
+        assertEquals("export default 1", read(fs, ROOT.resolve("index.mjs")));
+        assertEquals("stored", read(fs, ROOT.resolve("lib/stored.txt")));
+        assertEquals(true, fs.readAttributes(ROOT.resolve("lib"), "*").get("isDirectory"));
+        assertEquals(6L, fs.readAttributes(ROOT.resolve("lib/stored.txt"), "*").get("size"));
+        // stored entries are sent from the archive, deflated ones are inflated into memory.
+        var region = fs.locate(ROOT.resolve("lib/stored.txt"), file);
+        assertFalse(region.inMemory());
+        assertEquals("stored", new String(archive.toByteArray(), (int) region.offset(), (int) region.length(), StandardCharsets.UTF_8));
+        region = fs.locate(ROOT.resolve("index.mjs"), file);
+        assertTrue(region.inMemory());
+        assertEquals("export default 1", StandardCharsets.UTF_8.decode(region.content()).toString());
+        // inflated only once, every reader gets its own read-only view.
+        assertTrue(region.content().isReadOnly());
+        assertEquals("export default 1", StandardCharsets.UTF_8.decode(fs.read(ROOT.resolve("index.mjs"))).toString());
+        assertThrows(FileSystemException.class, () -> fs.locate(ROOT.resolve("lib"), file));
+        var children = new ArrayList<Path>();
+        fs.newDirectoryStream(ROOT, it -> true).forEach(children::add);
+        assertEquals(Set.of(ROOT.resolve("index.mjs"), ROOT.resolve("lib")), Set.copyOf(children));
+
+        assertThrows(NoSuchFileException.class, () -> fs.checkAccess(ROOT.resolve("missing.mjs"), Set.of()));
+        assertThrows(NoSuchFileException.class, () -> fs.checkAccess(ROOT.resolve("../etc/passwd"), Set.of()));
+        assertThrows(ReadOnlyFileSystemException.class,
+                () -> fs.newByteChannel(ROOT.resolve("index.mjs"), Set.of(StandardOpenOption.WRITE)));
+    }
+
+    @Test
+    void testTar(@TempDir Path dir) throws IOException {
+        var archive = new ByteArrayOutputStream();
+        writeTarEntry(archive, "./src/", '5', new byte[0]);
+        writeTarEntry(archive, "./src/index.mjs", '0', "export default 2".getBytes(StandardCharsets.UTF_8));
+        archive.write(new byte[1024]);
+        var fs = ArchiveFileSystem.open(Files.write(dir.resolve("bundle.tar"), archive.toByteArray()), ROOT);
+
+        assertEquals("export default 2", read(fs, ROOT.resolve("src/index.mjs")));
+        assertEquals(fs.toRealPath(ROOT.resolve("src/../src/index.mjs")), ROOT.resolve("src/index.mjs"));
+    }
+
+    @Test
+    void testRejectEscapingEntries(@TempDir Path dir) throws IOException {
+        var archive = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("../evil.mjs"));
+        }
+        var path = Files.write(dir.resolve("bundle.zip"), archive.toByteArray());
+        assertThrows(IOException.class, () -> ArchiveFileSystem.open(path, ROOT));
+        var garbage = Files.write(dir.resolve("garbage"), new byte[1024]);
+        assertThrows(IOException.class, () -> ArchiveFileSystem.open(garbage, ROOT));
+    }
+
+    @Test
+    void testRejectOverflowingEntries(@TempDir Path dir) throws IOException {
+        var archive = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("index.mjs"));
+            zip.write("export default 1".getBytes(StandardCharsets.UTF_8));
+        }
+        var bytes = ByteBuffer.wrap(archive.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        var central = 0;
+        while (bytes.getInt(central) != 0x02014b50) central++;
+        // offset + compressed length wraps around in int arithmetic.
+        bytes.putInt(central + 20, Integer.MAX_VALUE - 8);
+        var path = Files.write(dir.resolve("bundle.zip"), bytes.array());
+        assertThrows(IOException.class, () -> ArchiveFileSystem.open(path, ROOT));
+    }
+
+    @Test
+    void testRejectMisdeclaredSizes(@TempDir Path dir) throws IOException {
+        var archive = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("index.mjs"));
+            zip.write("export default 1".getBytes(StandardCharsets.UTF_8));
+        }
+        var central = centralDirectory(archive.toByteArray());
+
+        // the size is checked against the inflated content, not trusted for the allocation.
+        var smaller = ByteBuffer.wrap(archive.toByteArray()).order(ByteOrder.LITTLE_ENDIAN).putInt(central + 24, 4);
+        var fs = ArchiveFileSystem.open(Files.write(dir.resolve("smaller.zip"), smaller.array()), ROOT);
+        assertThrows(IOException.class, () -> fs.read(ROOT.resolve("index.mjs")));
+        var larger = ByteBuffer.wrap(archive.toByteArray()).order(ByteOrder.LITTLE_ENDIAN).putInt(central + 24, 64);
+        var other = ArchiveFileSystem.open(Files.write(dir.resolve("larger.zip"), larger.array()), ROOT);
+        assertThrows(IOException.class, () -> other.read(ROOT.resolve("index.mjs")));
+        var huge = ByteBuffer.wrap(archive.toByteArray()).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(central + 24, ArchiveFileSystem.MAX_INFLATED_BYTES + 1);
+        var hugePath = Files.write(dir.resolve("huge.zip"), huge.array());
+        assertThrows(IOException.class, () -> ArchiveFileSystem.open(hugePath, ROOT));
+
+        // stored entries are sent by their size, which must not reach past the entry.
+        var stored = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(stored)) {
+            var content = "stored".getBytes(StandardCharsets.UTF_8);
+            var entry = new ZipEntry("stored.txt");
+            var crc = new CRC32();
+            crc.update(content);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(content.length);
+            entry.setCrc(crc.getValue());
+            zip.putNextEntry(entry);
+            zip.write(content);
+        }
+        var overreaching = ByteBuffer.wrap(stored.toByteArray()).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(centralDirectory(stored.toByteArray()) + 24, 1 << 20);
+        var overreachingPath = Files.write(dir.resolve("overreaching.zip"), overreaching.array());
+        assertThrows(IOException.class, () -> ArchiveFileSystem.open(overreachingPath, ROOT));
+    }
+
+    @Test
+    void testUnusedBundleClosed(@TempDir Path dir) throws IOException {
+        var archive = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("index.mjs"));
+            zip.write("export default 1".getBytes(StandardCharsets.UTF_8));
+        }
+        var digest = "0".repeat(64);
+        Files.write(dir.resolve(digest), archive.toByteArray());
+        var bundles = new BundleFileSystem(FileSystem.newDefaultFileSystem(), ROOT, dir::resolve);
+        bundles.retain(digest);
+        bundles.retain(digest);
+        var opened = bundles.open(digest);
+        bundles.release(digest);
+        assertSame(opened, bundles.open(digest), "the bundle is still used by a context");
+        bundles.release(digest);
+        assertThrows(ClosedFileSystemException.class, () -> opened.read(ROOT.resolve(digest).resolve("index.mjs")));
+        // mapped again on the next access.
+        assertNotSame(opened, bundles.open(digest));
+        assertEquals("export default 1", read(bundles.open(digest), ROOT.resolve(digest).resolve("index.mjs")));
+    }
+
+    private static int centralDirectory(byte[] archive) {
+        var bytes = ByteBuffer.wrap(archive).order(ByteOrder.LITTLE_ENDIAN);
+        var central = 0;
+        while (bytes.getInt(central) != 0x02014b50) central++;
+        return central;
+    }
+
+    private static String read(ArchiveFileSystem fs, Path path) throws IOException {
+        try (var channel = fs.newByteChannel(path, Set.of(StandardOpenOption.READ))) {
+            var buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) ;
+            return new String(buffer.array(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void writeTarEntry(ByteArrayOutputStream out, String name, char type, byte[] content) {
+        var header = new byte[512];
+        var nameBytes = name.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        var size = String.format("%011o", content.length).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(size, 0, header, 124, size.length);
+        header[156] = (byte) type;
+        var magic = "ustar\u000000".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(magic, 0, header, 257, magic.length);
+        out.writeBytes(header);
+        out.writeBytes(content);
+        out.writeBytes(new byte[(512 - content.length % 512) % 512]);
+    }
+}
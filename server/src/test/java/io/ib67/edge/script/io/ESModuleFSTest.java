@@ -29,8 +29,7 @@ import java.nio.file.Path;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 class ESModuleFSTest {
     FileSystem imfs;
@@ -64,4 +63,27 @@ class ESModuleFSTest {
         assertEquals("/test/pathB", esmfs.parsePath("@test/pathB").toString());
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testResolutionCache() {
+        var libLocator = mock(ModuleLocator.class);
+        when(libLocator.locateRoot("test")).thenAnswer(it -> Path.of("/test"));
+        when(libLocator.locateModule("test", "pathB")).thenAnswer(it -> Path.of("/test/pathB"));
+        var stats = new ResolutionCache.Stats();
+        var cache = new ResolutionCache(16, stats);
+        var esmfs = new ESModuleFS(
+                org.graalvm.polyglot.io.FileSystem.newReadOnlyFileSystem(
+                        org.graalvm.polyglot.io.FileSystem.newFileSystem(imfs)
+                ), () -> libLocator, () -> cache);
+        assertEquals("/test/pathB", esmfs.parsePath("@test/pathB").toString());
+        assertEquals("/test/pathB", esmfs.parsePath("@test/pathB").toString());
+        verify(libLocator, times(1)).locateModule("test", "pathB");
+        assertEquals(1, stats.snapshot().hits());
+        assertEquals(1, stats.snapshot().misses());
+
+        // a new generation invalidates the cache
+        when(libLocator.generation()).thenReturn(1L);
+        assertEquals("/test/pathB", esmfs.parsePath("@test/pathB").toString());
+        verify(libLocator, times(2)).locateModule("test", "pathB");
+    }
+}
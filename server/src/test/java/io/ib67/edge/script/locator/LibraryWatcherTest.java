@@ -0,0 +1,48 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package io.ib67.edge.script.locator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LibraryWatcherTest {
+    @TempDir
+    Path searchRoot;
+
+    @Test
+    void testReportChangedLibraries() throws Exception {
+        var lib1 = Files.createDirectories(searchRoot.resolve("lib1/nested"));
+        Files.createDirectories(searchRoot.resolve("lib2"));
+        var changes = new LinkedBlockingQueue<Set<String>>();
+        try (var ignored = new LibraryWatcher(searchRoot, Thread.ofPlatform().daemon().factory(), changes::add)) {
+            Files.writeString(lib1.resolve("index.mjs"), "export let a = 1;");
+            assertEquals(Set.of("lib1"), changes.poll(10, TimeUnit.SECONDS));
+
+            Files.createDirectories(searchRoot.resolve("lib3"));
+            assertEquals(Set.of("lib3"), changes.poll(10, TimeUnit.SECONDS));
+        }
+    }
+}
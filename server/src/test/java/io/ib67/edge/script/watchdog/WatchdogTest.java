@@ -0,0 +1,87 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package io.ib67.edge.script.watchdog;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.proxy.ProxyExecutable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WatchdogTest {
+    Watchdog watchdog;
+    Context context;
+
+    @BeforeEach
+    void setup() {
+        watchdog = new Watchdog(Thread.ofPlatform().daemon().factory(), Duration.ofMillis(100));
+        context = Context.create("js");
+    }
+
+    @AfterEach
+    void teardown() {
+        watchdog.close();
+        context.close(true);
+    }
+
+    @Test
+    void testInterruptOverdue() {
+        var slot = watchdog.register(context);
+        slot.arm();
+        var ex = assertThrows(PolyglotException.class, () -> context.eval("js", "while(true){}"));
+        assertTrue(ex.isInterrupted());
+        assertTrue(slot.isArmed(), "the slot is disarmed by its owner");
+        assertFalse(slot.isCancelled());
+        // the context is still usable for the next request.
+        slot.arm();
+        assertEquals(2, context.eval("js", "1+1").asInt());
+        slot.disarm();
+    }
+
+    @Test
+    void testCancelIgnoringInterruption() {
+        var slot = watchdog.register(context);
+        // host code doesn't check for interruptions.
+        context.getBindings("js").putMember("spin", (ProxyExecutable) args -> {
+            var end = System.nanoTime() + Duration.ofMillis(args[0].asLong()).toNanos();
+            while (System.nanoTime() - end < 0) {
+                Thread.onSpinWait();
+            }
+            return null;
+        });
+        slot.arm();
+        assertThrows(PolyglotException.class, () -> context.eval("js", "spin(500); while(true){}"));
+        slot.disarm();
+        assertTrue(slot.isCancelled(), "the context ignoring the interruption should be cancelled");
+    }
+
+    @Test
+    void testDisarmedIsNotInterrupted() throws InterruptedException {
+        var slot = watchdog.register(context);
+        slot.arm();
+        slot.disarm();
+        Thread.sleep(300);
+        assertEquals(2, context.eval("js", "1+1").asInt());
+        slot.close();
+    }
+}
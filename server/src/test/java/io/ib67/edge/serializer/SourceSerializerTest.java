@@ -17,14 +17,19 @@
 
 package io.ib67.edge.serializer;
 
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.io.ByteSequence;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
-import static org.junit.jupiter.api.Assertions.assertArrayEquals;
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 public class SourceSerializerTest {
 
@@ -73,4 +78,62 @@ public class SourceSerializerTest {
         assertEquals(source.getLanguage(), deserialized.getLanguage());
         assertArrayEquals(source.getBytes().toByteArray(), deserialized.getBytes().toByteArray());
     }
+
+    @Test
+    public void testIdenticalSourcesAreInterned() throws Exception {
+        Source source = Source.newBuilder("js", "export default 1", "handler.js").build();
+        ObjectMapper mapper = new ObjectMapper().registerModule(sourceModule());
+        var interner = new SourceInterner();
+        var reader = mapper.readerFor(Source.class).withAttribute(SourceInterner.ATTRIBUTE, interner);
+
+        String json = mapper.writeValueAsString(source);
+        Source first = reader.readValue(json);
+        Source second = reader.readValue(json);
+        Source renamed = reader.readValue(mapper.writeValueAsString(
+                Source.newBuilder("js", "export default 1", "renamed.js").build()));
+        Source other = reader.readValue(mapper.writeValueAsString(
+                Source.newBuilder("js", "export default 2", "handler.js").build()));
+
+        assertSame(first, second);
+        assertNotSame(first, renamed, "a source keeps its own name");
+        assertEquals("renamed.js", renamed.getName());
+        assertNotSame(first, other);
+        assertEquals(1, interner.getStats().hits());
+        assertNotSame(first, mapper.readValue(json, Source.class), "sources are only interned with an interner");
+    }
+
+    @Test
+    public void testContentStoredOnce(@TempDir Path dir) throws Exception {
+        var store = new ContentStore(dir);
+        ObjectMapper mapper = new ObjectMapper().registerModule(sourceModule());
+        var writer = mapper.writer().withAttribute(ContentStore.ATTRIBUTE, store);
+        Source source = Source.newBuilder("js", "export default 'same'", "a.js").build();
+        Source copy = Source.newBuilder("js", "export default 'same'", "b.js").build();
+
+        String json = writer.writeValueAsString(source);
+        writer.writeValueAsString(copy);
+        try (var files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+        assertFalse(json.contains("same"));
+
+        Source deserialized = mapper.readerFor(Source.class)
+                .withAttribute(ContentStore.ATTRIBUTE, store)
+                .readValue(json);
+        assertEquals(source.getCharacters().toString(), deserialized.getCharacters().toString());
+        assertEquals(source.getPath(), deserialized.getPath());
+        assertThrows(JsonMappingException.class, () -> mapper.readValue(json, Source.class));
+
+        store.retain(Set.of());
+        try (var files = Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    private static SimpleModule sourceModule() {
+        SimpleModule module = new SimpleModule();
+        module.addSerializer(new SourceSerializer());
+        module.addDeserializer(Source.class, new SourceDeserializer());
+        return module;
+    }
 }
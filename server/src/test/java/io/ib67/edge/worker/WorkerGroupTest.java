@@ -0,0 +1,76 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package io.ib67.edge.worker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class WorkerGroupTest {
+    @Test
+    void testSelectLeastInFlight() {
+        var busy = mock(Worker.class);
+        var idle = mock(Worker.class);
+        when(busy.getInFlight()).thenReturn(10);
+        when(idle.getInFlight()).thenReturn(2);
+        var group = new WorkerGroup(List.of(busy, idle));
+        for (int i = 0; i < 4; i++) {
+            assertSame(idle, group.select());
+        }
+        assertEquals(12, group.getInFlight());
+    }
+
+    @Test
+    void testSelectRoundRobinOnTie() {
+        var a = mock(Worker.class);
+        var b = mock(Worker.class);
+        var c = mock(Worker.class);
+        var group = new WorkerGroup(List.of(a, b, c));
+        var selected = new HashSet<Worker>();
+        for (int i = 0; i < 3; i++) {
+            selected.add(group.select());
+        }
+        assertEquals(3, selected.size());
+        assertSame(a, group.primary());
+    }
+
+    @Test
+    void testSelectPrefersLocalEventLoop() {
+        var remote = mock(Worker.class);
+        var local = mock(Worker.class);
+        when(remote.getInFlight()).thenReturn(0);
+        when(local.getInFlight()).thenReturn(3);
+        when(local.getEventLoop()).thenReturn(Thread.currentThread());
+        var group = new WorkerGroup(List.of(remote, local));
+        for (int i = 0; i < 4; i++) {
+            assertSame(local, group.select());
+        }
+        when(local.getInFlight()).thenReturn(WorkerGroup.LOCALITY_SLACK + 1);
+        assertSame(remote, group.select());
+    }
+
+    @Test
+    void testEmptyGroup() {
+        assertThrows(IllegalArgumentException.class, () -> new WorkerGroup(List.of()));
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ *    Copyright 2025 iceBear67 and Contributors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package io.ib67.edge.worker;
+
+import io.ib67.edge.Deployment;
+import io.ib67.edge.config.ServerConfig.DispatchMode;
+import io.ib67.edge.script.ContextLimits;
+import io.ib67.edge.script.context.ScriptContext;
+import io.ib67.edge.script.watchdog.Watchdog;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.ResourceLimits;
+import org.graalvm.polyglot.Source;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class WorkerTest {
+    @Test
+    void testShedOverInFlightLimit() {
+        var worker = new Worker(() -> {
+        }, DispatchMode.DIRECT, new WorkerLimits(1, -1, 5));
+        var accepted = mockRequest();
+        var rejected = mockRequest();
+        worker.handleRequest(null, accepted);
+        assertEquals(1, worker.getInFlight());
+        worker.handleRequest(null, rejected);
+        assertEquals(1, worker.getInFlight());
+        assertEquals(1, worker.getShed());
+        verify(rejected.response()).setStatusCode(503);
+        verify(rejected.response()).putHeader("Retry-After", "5");
+        verify(accepted.response(), never()).setStatusCode(anyInt());
+    }
+
+    @Test
+    void testPendingWorkerQueuesUntilStarted() {
+        var promise = Promise.<WorkerGroup>promise();
+        var pending = new PendingWorker(promise.future());
+        var started = mock(Worker.class);
+        var request = mockRequest();
+        pending.handleRequest(null, request);
+        assertEquals(1, pending.getQueued());
+        verify(request).pause();
+        verify(started, never()).handleRequest(any(), any());
+
+        promise.complete(new WorkerGroup(List.of(started)));
+        assertEquals(0, pending.getQueued());
+        // the started worker resumes it once the script has installed its handlers.
+        verify(request, never()).resume();
+        verify(started).handlePausedRequest(null, request);
+    }
+
+    @Test
+    void testPausedRequestResumedAfterHandled() {
+        var order = new ArrayList<String>();
+        var worker = new Worker(() -> {
+        }) {
+            @Override
+            protected void handleRequest0(HttpServerRequest request) {
+                order.add("handled");
+            }
+        };
+        var request = mockRequest();
+        doAnswer(it -> order.add("resumed")).when(request).resume();
+        worker.handlePausedRequest(null, request);
+        assertEquals(List.of("handled", "resumed"), order);
+
+        var streamed = mockRequest();
+        var claiming = new Worker(() -> {
+        }) {
+            @Override
+            protected void handleRequest0(HttpServerRequest request) {
+                claimBody(request);
+            }
+        };
+        claiming.handlePausedRequest(null, streamed);
+        verify(streamed, never()).resume();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testScriptEndHandlerChained() {
+        var chained = new ArrayList<String>();
+        var worker = new Worker(() -> {
+        }) {
+            @Override
+            protected void handleRequest0(HttpServerRequest request) {
+                // what EdgeResponse.endHandler does for the script.
+                chainEndHandler(request.response(), v -> chained.add("script"));
+            }
+        };
+        var request = mockRequest();
+        worker.handleRequest(null, request);
+        var endHandler = ArgumentCaptor.forClass(Handler.class);
+        verify(request.response()).endHandler(endHandler.capture());
+        assertEquals(1, worker.getInFlight());
+        endHandler.getValue().handle(null);
+        assertEquals(0, worker.getInFlight(), "the handler of the worker is kept");
+        assertEquals(List.of("script"), chained);
+        assertFalse(worker.chainEndHandler(request.response(), v -> chained.add("late")));
+    }
+
+    @Test
+    void testPendingWorkerRejectsOnFailure() {
+        var promise = Promise.<WorkerGroup>promise();
+        var pending = new PendingWorker(promise.future());
+        var request = mockRequest();
+        pending.handleRequest(null, request);
+        promise.fail("cannot start");
+        assertEquals(0, pending.getQueued());
+        assertEquals(1, pending.getShed());
+        verify(request.response()).setStatusCode(503);
+    }
+
+    @Test
+    void testLimitExceededInContinuation() {
+        PolyglotException exceeded;
+        try (var context = Context.newBuilder("js")
+                .resourceLimits(ResourceLimits.newBuilder().statementLimit(100, null).build())
+                .build()) {
+            exceeded = assertThrows(PolyglotException.class, () -> context.eval("js", "while (true) {}"));
+        }
+        var deployment = new Deployment("test", null, Source.create("js", ""), 0, null, 0, 0, null, null,
+                0, 0, 0, 0, false, null);
+        var reported = new ArrayList<ContextLimits.Kind>();
+        var worker = new ScriptWorker(mock(ScriptContext.class), deployment, mock(Watchdog.class), DispatchMode.DIRECT,
+                new WorkerLimits(-1, -1, 5), null, (it, kind) -> reported.add(kind), () -> {
+        });
+        var pending = mockRequest();
+        var done = mockRequest();
+        worker.trackInFlight(pending);
+        worker.trackInFlight(done);
+        worker.onReleased(done);
+        // a continuation of some request ran out of statements, every pending request is ended.
+        worker.onContinuationFailure(exceeded);
+        verify(pending.response()).setStatusCode(503);
+        verify(done.response(), never()).setStatusCode(anyInt());
+        worker.onContinuationFailure(exceeded);
+        assertEquals(List.of(ContextLimits.Kind.STATEMENTS), reported, "the limit is reported once");
+    }
+
+    private static HttpServerRequest mockRequest() {
+        var request = mock(HttpServerRequest.class);
+        var response = mock(HttpServerResponse.class);
+        when(request.response()).thenReturn(response);
+        when(response.endHandler(any())).thenReturn(response);
+        when(response.closeHandler(any())).thenReturn(response);
+        when(response.setStatusCode(anyInt())).thenReturn(response);
+        when(response.putHeader(anyString(), anyString())).thenReturn(response);
+        return request;
+    }
+}